@@ -0,0 +1,189 @@
+package org.calves.fnzs.benchmark;
+
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a synthetic tournament shaped like Yunite data: sessions, team leaderboard and match leaderboards.
+ * <p>
+ * Players are drawn from a pool slightly smaller than the number of team slots, so some of them play in more than
+ * one team and the merge path of the pipeline is exercised. Game scores are consistent with the generated point
+ * system. The same seed always produces the same tournament.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardFixtures {
+
+    private static final int PLAYERS_PER_SESSION = 100;
+    private static final double PARTICIPATION_RATE = 0.7;
+    private static final double POOL_RATIO = 0.9;
+
+    private final Tournament tournament;
+    private final List<MatchSession> sessions = new ArrayList<>();
+    private final List<Instant> sessionTimestamps = new ArrayList<>();
+    private final Map<String, List<SessionLeaderboard>> sessionLeaderboards = new HashMap<>();
+    private final Set<String> epicIds = new LinkedHashSet<>();
+    private final int teamCount;
+    private final int teamSize;
+    private final long seed;
+
+    public LeaderboardFixtures(int teamCount, int teamSize, int sessionCount, int maxGamesScored,
+                               List<Tournament.TieBreaker> tieBreakers, long seed) {
+        this.teamCount = teamCount;
+        this.teamSize = teamSize;
+        this.seed = seed;
+        this.tournament = createTournament(maxGamesScored, tieBreakers);
+
+        Instant start = Instant.parse("2024-09-01T18:00:00Z");
+        for (int i = 0; i < sessionCount; i++) {
+            MatchSession session = new MatchSession();
+            session.setSessionId(String.format("session-%04d", i));
+            session.setStatus(MatchSession.Status.SCORED);
+            session.setPlayers(PLAYERS_PER_SESSION);
+            sessions.add(session);
+            // Timestamps are spread over the event so games have a stable order
+            sessionTimestamps.add(start.plusSeconds(i * 25L * 60));
+
+            List<SessionLeaderboard> leaderboard = new ArrayList<>();
+            for (int j = 0; j < PLAYERS_PER_SESSION / teamSize; j++) {
+                leaderboard.add(new SessionLeaderboard());
+            }
+            sessionLeaderboards.put(session.getSessionId(), leaderboard);
+        }
+
+        for (Team team : createTeams()) {
+            for (Team.User user : team.getUsers()) {
+                epicIds.add(user.getEpicId());
+            }
+        }
+    }
+
+    public Tournament getTournament() {
+        return tournament;
+    }
+
+    public List<MatchSession> getSessions() {
+        return sessions;
+    }
+
+    public Map<String, MatchSession> getSessionsById() {
+        Map<String, MatchSession> sessionsById = new HashMap<>(sessions.size() * 2);
+        sessions.forEach(session -> sessionsById.put(session.getSessionId(), session));
+        return sessionsById;
+    }
+
+    public List<SessionLeaderboard> getSessionLeaderboard(String sessionId) {
+        return sessionLeaderboards.get(sessionId);
+    }
+
+    public Set<String> getEpicIds() {
+        return epicIds;
+    }
+
+    /**
+     * Returns a fresh copy of the team leaderboard, as a new Yunite response would be.
+     */
+    public List<Team> createTeams() {
+        Random random = new Random(seed);
+        // Solo players cannot be part of several teams
+        int poolSize = teamSize == 1 ? teamCount : (int) (teamCount * teamSize * POOL_RATIO);
+        List<Team> teams = new ArrayList<>(teamCount);
+        for (int i = 0; i < teamCount; i++) {
+            teams.add(createTeam(random, i, poolSize));
+        }
+        return teams;
+    }
+
+    private Team createTeam(Random random, int index, int poolSize) {
+        List<Team.User> users = new ArrayList<>(teamSize);
+        Set<Integer> members = new LinkedHashSet<>();
+        // The first slot is unique per team so every team is distinct, the others may repeat players from other teams
+        members.add(index * teamSize % poolSize);
+        while (members.size() < teamSize) {
+            members.add(random.nextInt(poolSize));
+        }
+        for (int member : members) {
+            Team.User user = new Team.User();
+            user.setEpicId(String.format("%032x", member));
+            user.setDiscordId(Integer.toString(member));
+            users.add(user);
+        }
+
+        List<Team.Game> games = new ArrayList<>();
+        int kills = 0;
+        int wins = 0;
+        int score = 0;
+        double secondsSurvived = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            if (random.nextDouble() > PARTICIPATION_RATE) {
+                continue;
+            }
+            Team.Game game = new Team.Game();
+            game.setSessionId(sessions.get(i).getSessionId());
+            game.setTimestamp(sessionTimestamps.get(i));
+            game.setPlacement(1 + random.nextInt(PLAYERS_PER_SESSION / teamSize));
+            game.setKills(random.nextInt(8 * teamSize));
+            game.setScore(game.getKills() * tournament.getPointSystem().getPointsPerKill()
+                    + tournament.getPointSystem().getCompletePointsPerPlacement().get(game.getPlacement()));
+            games.add(game);
+
+            kills += game.getKills();
+            wins += game.getPlacement() == 1 ? 1 : 0;
+            score += game.getScore();
+            secondsSurvived += 60 + random.nextInt(1200);
+        }
+
+        Team team = new Team();
+        team.setUsers(users);
+        team.setGameList(games);
+        team.setCorrections(new ArrayList<>());
+        team.setGames(games.size());
+        team.setKills(kills);
+        team.setWins(wins);
+        team.setScore(score);
+        team.setSumSecondsSurvived(secondsSurvived);
+        return team;
+    }
+
+    private static Tournament createTournament(int maxGamesScored, List<Tournament.TieBreaker> tieBreakers) {
+        Map<Integer, Integer> pointsPerPlacement = new HashMap<>();
+        for (int placement = 1; placement <= PLAYERS_PER_SESSION; placement++) {
+            pointsPerPlacement.put(placement, Math.max(0, 25 - placement / 2));
+        }
+
+        Tournament.PointSystem pointSystem = new Tournament.PointSystem();
+        pointSystem.setKillCap(0);
+        pointSystem.setPointsPerKill(1);
+        pointSystem.setCompletePointsPerPlacement(pointsPerPlacement);
+
+        Tournament tournament = new Tournament();
+        tournament.setId("benchmark-tournament");
+        tournament.setName("Benchmark Cup");
+        tournament.setMaxGamesScored(maxGamesScored);
+        tournament.setConsensusMin(0);
+        tournament.setTiebreakers(new ArrayList<>(tieBreakers));
+        tournament.setPointSystem(pointSystem);
+        return tournament;
+    }
+
+    /**
+     * Shuffled copy of the given teams, so sorting benchmarks never start from an already ranked list.
+     */
+    public List<Team> shuffled(List<Team> teams) {
+        List<Team> copy = new ArrayList<>(teams);
+        Collections.shuffle(copy, new Random(seed));
+        return copy;
+    }
+}
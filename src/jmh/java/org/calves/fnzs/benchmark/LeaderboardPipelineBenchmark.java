@@ -0,0 +1,189 @@
+package org.calves.fnzs.benchmark;
+
+import org.calves.fnzs.cache.SessionLeaderboardCache;
+import org.calves.fnzs.cache.UsernameCache;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.client.YuniteClient;
+import org.calves.fnzs.leaderboard.CountedStatsEngine;
+import org.calves.fnzs.leaderboard.IndividualAggregator;
+import org.calves.fnzs.leaderboard.LeaderboardPipeline;
+import org.calves.fnzs.leaderboard.RankingEngine;
+import org.calves.fnzs.leaderboard.SessionLeaderboardFetcher;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks every stage of the individual leaderboard pipeline and the whole pipeline against a stubbed Yunite API.
+ * <p>
+ * Runs in throughput and sample time modes, the latter reporting latency percentiles. The {@code jmh} profile enables
+ * the GC profiler by default to report the allocation rate.
+ * <p>
+ * The default parameters cover a mid-sized and a large tournament of trios, which is enough to compare changes. The
+ * full sweep runs for hours, pass it through {@code jmh.args} when needed:
+ * <pre>
+ * -p teams=100,1000,5000 -p teamSize=1,2,3 -p sessions=12,50 -p maxGamesScored=0,6
+ * -p tieBreakers=WINS+AVERAGE_PLACEMENT,SUM_ELIMINATIONS+AVERAGE_TIME_SURVIVED+SCORE_PER_MATCH
+ * </pre>
+ * Tie breakers are separated by {@code +}, as JMH splits parameter values on commas.
+ *
+ * @author carlos.pedroalves
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderboardPipelineBenchmark {
+
+    private static final String GUILD_ID = "benchmark-guild";
+
+    @Param({"1000", "5000"})
+    public int teams;
+
+    @Param({"3"})
+    public int teamSize;
+
+    @Param({"12"})
+    public int sessions;
+
+    @Param({"6"})
+    public int maxGamesScored;
+
+    @Param({"WINS+AVERAGE_PLACEMENT"})
+    public String tieBreakers;
+
+    private LeaderboardFixtures fixtures;
+    private StubYuniteApi api;
+    private UsernameResolver usernameResolver;
+    // Shared by every pipeline, so cold builds do not leave a client and its thread pools behind on each invocation
+    private YuniteClient client;
+    private SessionLeaderboardFetcher fetcher;
+    private LeaderboardPipeline warmPipeline;
+    private LeaderboardPipeline incrementalPipeline;
+
+    private Tournament tournament;
+    private List<Team> enrichedTeams;
+    private List<Team> players;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        List<Tournament.TieBreaker> order = Arrays.stream(tieBreakers.split("\\+")).map(Tournament.TieBreaker::valueOf).toList();
+        fixtures = new LeaderboardFixtures(teams, teamSize, sessions, maxGamesScored, order, 42);
+        tournament = fixtures.getTournament();
+        api = new StubYuniteApi(fixtures);
+
+        // Every player is known so username resolution never goes to Epic or Mongo
+        UsernameCache usernames = new UsernameCache(Long.MAX_VALUE, Duration.ofDays(1), Duration.ofDays(1));
+        fixtures.getEpicIds().forEach(epicId -> usernames.put(epicId, "player-" + epicId.substring(24)));
+        usernameResolver = new UsernameResolver(usernames, 4, 25);
+
+        // Limits are out of reach so only the client's own overhead is measured
+        client = new YuniteClient(api, new YuniteClient.Settings(1_000_000, 1_000_000, Duration.ofSeconds(10), 0,
+                Duration.ofMillis(1), Duration.ofMillis(1), Integer.MAX_VALUE, Duration.ofSeconds(1), Long.MAX_VALUE));
+        fetcher = new SessionLeaderboardFetcher(client, GUILD_ID, 8, Duration.ofMinutes(1));
+
+        warmPipeline = createPipeline(false);
+        enrichedTeams = fixtures.createTeams();
+        warmPipeline.enrichTournamentMatches(tournament, fixtures.getSessionsById(), enrichedTeams);
+        players = IndividualAggregator.splitAndMerge(enrichedTeams);
+        CountedStatsEngine.recalculate(tournament, players);
+
+        // The unchanged leaderboard is the same response on every build, so creating it is not measured either
+        api.setNextLeaderboard(fixtures.createTeams());
+        incrementalPipeline = createPipeline(true);
+        incrementalPipeline.build(tournament);
+    }
+
+    /**
+     * Ranking input shuffled before every invocation, outside the measured code.
+     */
+    @State(Scope.Thread)
+    public static class ShuffledPlayers {
+
+        private List<Team> players;
+
+        @Setup(Level.Invocation)
+        public void shuffle(LeaderboardPipelineBenchmark benchmark) {
+            players = benchmark.fixtures.shuffled(benchmark.players);
+        }
+    }
+
+    /**
+     * Fresh Yunite response and empty caches prepared before every invocation, outside the measured code. The client
+     * and fetcher are reused, they keep nothing between builds that would make the pipeline warm.
+     */
+    @State(Scope.Thread)
+    public static class ColdPipeline {
+
+        private LeaderboardPipeline pipeline;
+
+        @Setup(Level.Invocation)
+        public void create(LeaderboardPipelineBenchmark benchmark) {
+            benchmark.api.setNextLeaderboard(benchmark.fixtures.createTeams());
+            pipeline = benchmark.createPipeline(false);
+        }
+    }
+
+    @Benchmark
+    public List<Team> splitAndMergeTeams() {
+        return IndividualAggregator.splitAndMerge(enrichedTeams);
+    }
+
+    @Benchmark
+    public List<Team> recalculateCountedStats() {
+        CountedStatsEngine.recalculate(tournament, players);
+        return players;
+    }
+
+    @Benchmark
+    public List<Team> enrichTournamentMatches() {
+        // Match leaderboards are already cached, this measures indexing and scoring
+        warmPipeline.enrichTournamentMatches(tournament, fixtures.getSessionsById(), enrichedTeams);
+        return enrichedTeams;
+    }
+
+    @Benchmark
+    public List<Team> sortAndSetPlacement(ShuffledPlayers shuffled) {
+        RankingEngine.sortAndSetPlacement(tournament.getTiebreakers(), shuffled.players);
+        return shuffled.players;
+    }
+
+    @Benchmark
+    public List<RankingEngine.Placement> topTwentyFive(ShuffledPlayers shuffled) {
+        return RankingEngine.topK(tournament.getTiebreakers(), shuffled.players, 25);
+    }
+
+    @Benchmark
+    public List<Team> endToEndCold(ColdPipeline cold) {
+        return cold.pipeline.build(tournament);
+    }
+
+    @Benchmark
+    public List<Team> endToEndIncrementalUnchanged() {
+        return incrementalPipeline.build(tournament);
+    }
+
+    private LeaderboardPipeline createPipeline(boolean incremental) {
+        SessionLeaderboardCache sessionLeaderboards = new SessionLeaderboardCache(Long.MAX_VALUE, Duration.ofDays(1), Duration.ofDays(1));
+        return new LeaderboardPipeline(client, GUILD_ID, sessionLeaderboards, fetcher, usernameResolver, incremental, Duration.ofDays(1),
+                Long.MAX_VALUE);
+    }
+}
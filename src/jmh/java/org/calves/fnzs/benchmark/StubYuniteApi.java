@@ -0,0 +1,48 @@
+package org.calves.fnzs.benchmark;
+
+import org.calves.yunite4j.YuniteApi;
+import org.calves.yunite4j.dto.ApiConfig;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+import org.calves.yunite4j.dto.Team;
+
+import java.util.List;
+
+/**
+ * {@link YuniteApi} answering from generated fixtures instead of the network.
+ *
+ * @author carlos.pedroalves
+ */
+public class StubYuniteApi extends YuniteApi {
+
+    private final LeaderboardFixtures fixtures;
+    private volatile List<Team> nextLeaderboard;
+
+    public StubYuniteApi(LeaderboardFixtures fixtures) {
+        super(new ApiConfig("benchmark"));
+        this.fixtures = fixtures;
+    }
+
+    /**
+     * Sets the teams returned by the next leaderboard call. Generating them is kept out of the measured code.
+     */
+    public void setNextLeaderboard(List<Team> teams) {
+        this.nextLeaderboard = teams;
+    }
+
+    @Override
+    public List<Team> getTournamentLeaderboard(String guildId, String tournamentId) {
+        List<Team> teams = nextLeaderboard;
+        return teams != null ? teams : fixtures.createTeams();
+    }
+
+    @Override
+    public List<MatchSession> getTournamentMatches(String guildId, String tournamentId) {
+        return fixtures.getSessions();
+    }
+
+    @Override
+    public List<SessionLeaderboard> getMatchLeaderboard(String guildId, String tournamentId, String sessionId) {
+        return fixtures.getSessionLeaderboard(sessionId);
+    }
+}
@@ -1,14 +1,21 @@
 package org.calves.fnzs;
 
+import com.vaadin.flow.component.page.AppShellConfigurator;
+import com.vaadin.flow.component.page.Push;
 import org.calves.fnzs.controller.FnzsController;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+// Push lets live leaderboards update open views without a reload
+@Push
 @SpringBootApplication
-public class FnzsApplication {
+public class FnzsApplication implements AppShellConfigurator {
 
     public static void main(String[] args) {
+        // Leaderboards built before the dictionary is in place would look every player up one by one, so it is loaded
+        // before restored leaderboards are refreshed and before anything is served
         FnzsController.loadUsernames();
+        FnzsController.restoreSnapshots();
         SpringApplication.run(FnzsApplication.class, args);
     }
 
@@ -0,0 +1,223 @@
+package org.calves.fnzs.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Per-tournament cache of computed individual leaderboards.
+ * <p>
+ * Snapshots are served from memory and refreshed in the background once they are older than the configured TTL,
+ * while the previous snapshot keeps being served. Concurrent misses for the same tournament share a single computation.
+ * The loader is given the snapshot being refreshed, so it can keep it when nothing changed.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(LeaderboardCache.class);
+
+    private final BiFunction<Tournament, LeaderboardSnapshot, LeaderboardSnapshot> loader;
+    // Tournament definitions are tiny and bounded by the guild's tournaments, so they are kept around for refreshes
+    private final Map<String, Tournament> tournaments = new ConcurrentHashMap<>();
+    private final AsyncLoadingCache<String, LeaderboardSnapshot> cache;
+    private final Map<String, Long> computedAt = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final AtomicLong totalRefreshNanos = new AtomicLong();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
+    private final AtomicLong lastRefreshNanos = new AtomicLong();
+
+    public LeaderboardCache(Function<Tournament, LeaderboardSnapshot> loader, Duration ttl) {
+        this((tournament, previous) -> loader.apply(tournament), ttl, Long.MAX_VALUE, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public LeaderboardCache(Function<Tournament, LeaderboardSnapshot> loader, Duration ttl, Executor executor) {
+        this((tournament, previous) -> loader.apply(tournament), ttl, Long.MAX_VALUE, executor);
+    }
+
+    /**
+     * @param loader      computes the leaderboard of a tournament given the snapshot being refreshed, null if none
+     * @param maximumRows how many leaderboard rows are kept at most, the least used leaderboards are dropped first
+     */
+    public LeaderboardCache(BiFunction<Tournament, LeaderboardSnapshot, LeaderboardSnapshot> loader, Duration ttl, long maximumRows,
+                            Executor executor) {
+        this.loader = loader;
+        this.cache = Caffeine.newBuilder()
+                .executor(executor)
+                .maximumWeight(maximumRows)
+                .weigher((String tournamentId, LeaderboardSnapshot snapshot) -> snapshot.getTeams().size() + 1)
+                .refreshAfterWrite(ttl)
+                // Tournaments nobody is looking at are dropped instead of being refreshed forever
+                .expireAfterAccess(ttl.multipliedBy(10))
+                .recordStats()
+                .buildAsync(this::load);
+        LOGGER.info("Leaderboard cache created with a TTL of {}", ttl);
+    }
+
+    /**
+     * Returns the last computed leaderboard for the tournament, computing it if there is none yet.
+     */
+    public LeaderboardSnapshot get(Tournament tournament) {
+        return getAsync(tournament).join();
+    }
+
+    public CompletableFuture<LeaderboardSnapshot> getAsync(Tournament tournament) {
+        // Always keep the latest tournament definition so refreshes use up-to-date rules
+        tournaments.put(tournament.getId(), tournament);
+        CompletableFuture<LeaderboardSnapshot> future = cache.getIfPresent(tournament.getId());
+        if (future != null) {
+            hits.increment();
+            return future;
+        }
+        misses.increment();
+        return cache.get(tournament.getId());
+    }
+
+    /**
+     * Returns the last computed leaderboard for the tournament, or null if there is none yet. Never computes one,
+     * although a leaderboard older than the TTL is refreshed in the background like on any other read.
+     */
+    public LeaderboardSnapshot getIfPresent(String tournamentId) {
+        CompletableFuture<LeaderboardSnapshot> future = cache.getIfPresent(tournamentId);
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        hits.increment();
+        return future.join();
+    }
+
+    /**
+     * Computes a new leaderboard for the tournament even if the cached one is still fresh. A refresh already in
+     * progress for the tournament is shared.
+     */
+    public CompletableFuture<LeaderboardSnapshot> refresh(Tournament tournament) {
+        tournaments.put(tournament.getId(), tournament);
+        return cache.synchronous().refresh(tournament.getId());
+    }
+
+    /**
+     * Serves a previously computed leaderboard, for example one restored from disk, until it is refreshed.
+     */
+    public void seed(LeaderboardSnapshot snapshot) {
+        String tournamentId = snapshot.getTournament().getId();
+        tournaments.put(tournamentId, snapshot.getTournament());
+        cache.put(tournamentId, CompletableFuture.completedFuture(snapshot));
+        long age = Duration.between(snapshot.getComputedAt(), Instant.now()).toNanos();
+        computedAt.put(tournamentId, System.nanoTime() - Math.max(0, age));
+    }
+
+    /**
+     * Returns the leaderboards currently cached, leaving out the ones still being computed.
+     */
+    public List<LeaderboardSnapshot> getSnapshots() {
+        List<LeaderboardSnapshot> snapshots = new ArrayList<>();
+        for (CompletableFuture<LeaderboardSnapshot> future : cache.asMap().values()) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                snapshots.add(future.join());
+            }
+        }
+        return snapshots;
+    }
+
+    public void invalidate(String tournamentId) {
+        cache.synchronous().invalidate(tournamentId);
+        tournaments.remove(tournamentId);
+        computedAt.remove(tournamentId);
+    }
+
+    /**
+     * Registers the Caffeine cache meters and the age of the oldest cached leaderboard.
+     */
+    public void registerMetrics(MeterRegistry registry, String name, Iterable<Tag> tags) {
+        CaffeineCacheMetrics.monitor(registry, cache, name, tags);
+        Gauge.builder("fnzs.leaderboard.cache.age", this, LeaderboardCache::getOldestAgeSeconds)
+                .description("Age of the oldest leaderboard being served from the cache")
+                .baseUnit("seconds")
+                .tag("cache", name)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private double getOldestAgeSeconds() {
+        long now = System.nanoTime();
+        long oldest = 0;
+        for (String tournamentId : cache.synchronous().asMap().keySet()) {
+            Long at = computedAt.get(tournamentId);
+            if (at != null) {
+                oldest = Math.max(oldest, now - at);
+            }
+        }
+        return oldest / 1e9;
+    }
+
+    public Stats getStats() {
+        long count = refreshes.sum();
+        return new Stats(
+                hits.sum(),
+                misses.sum(),
+                count,
+                refreshFailures.sum(),
+                count == 0 ? 0 : Duration.ofNanos(totalRefreshNanos.get() / count).toMillis(),
+                Duration.ofNanos(maxRefreshNanos.get()).toMillis(),
+                Duration.ofNanos(lastRefreshNanos.get()).toMillis(),
+                cache.synchronous().estimatedSize());
+    }
+
+    private LeaderboardSnapshot load(String tournamentId) {
+        Tournament tournament = tournaments.get(tournamentId);
+        if (tournament == null) {
+            throw new IllegalStateException(String.format("No tournament definition for %s", tournamentId));
+        }
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<LeaderboardSnapshot> current = cache.asMap().get(tournamentId);
+            LeaderboardSnapshot previous = current != null && current.isDone() && !current.isCompletedExceptionally()
+                    ? current.join() : null;
+            LeaderboardSnapshot snapshot = loader.apply(tournament, previous);
+            long elapsed = System.nanoTime() - start;
+            refreshes.increment();
+            totalRefreshNanos.addAndGet(elapsed);
+            maxRefreshNanos.accumulateAndGet(elapsed, Math::max);
+            lastRefreshNanos.set(elapsed);
+            computedAt.put(tournamentId, System.nanoTime());
+            LOGGER.debug("Computed leaderboard for tournament {} in {} ms", tournamentId, Duration.ofNanos(elapsed).toMillis());
+            return snapshot;
+        } catch (RuntimeException ex) {
+            refreshFailures.increment();
+            LOGGER.error("Failed to compute leaderboard for tournament {}", tournamentId, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters. Latencies are in milliseconds.
+     */
+    public record Stats(long hits, long misses, long refreshes, long refreshFailures,
+                        long averageRefreshMillis, long maxRefreshMillis, long lastRefreshMillis, long size) {
+    }
+}
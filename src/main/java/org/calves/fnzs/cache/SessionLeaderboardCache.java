@@ -0,0 +1,120 @@
+package org.calves.fnzs.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of match leaderboards keyed by session ID.
+ * <p>
+ * Entries are weighted by the number of rows in the leaderboard so the cache is bounded by the data it holds rather
+ * than the number of matches. Leaderboards of scored sessions never change, so they are kept until they are not read
+ * for a while; leaderboards of sessions still being scored expire shortly after being fetched so they get refetched.
+ *
+ * @author carlos.pedroalves
+ */
+public class SessionLeaderboardCache {
+
+    private final Cache<String, Entry> cache;
+    private final AtomicLong completedPuts = new AtomicLong();
+
+    public SessionLeaderboardCache(long maximumRows, Duration completedIdleTtl, Duration pendingTtl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumRows)
+                .weigher((String sessionId, Entry entry) -> entry.leaderboard().size() + 1)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String sessionId, Entry entry, long currentTime) {
+                        return entry.completed() ? completedIdleTtl.toNanos() : pendingTtl.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String sessionId, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(sessionId, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String sessionId, Entry entry, long currentTime, long currentDuration) {
+                        return entry.completed() ? completedIdleTtl.toNanos() : currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached leaderboard of the session, or null if it is not cached.
+     */
+    public List<SessionLeaderboard> get(String sessionId) {
+        Entry entry = cache.getIfPresent(sessionId);
+        return entry == null ? null : entry.leaderboard();
+    }
+
+    public boolean contains(String sessionId) {
+        return cache.asMap().containsKey(sessionId);
+    }
+
+    /**
+     * @param completed whether the session is already scored, in which case its leaderboard is final
+     */
+    public void put(String sessionId, List<SessionLeaderboard> leaderboard, boolean completed) {
+        cache.put(sessionId, new Entry(List.copyOf(leaderboard), completed));
+        if (completed) {
+            completedPuts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the leaderboards of scored sessions, which are final and can be persisted.
+     */
+    public Map<String, List<SessionLeaderboard>> getCompleted() {
+        Map<String, List<SessionLeaderboard>> completed = new HashMap<>();
+        cache.asMap().forEach((sessionId, entry) -> {
+            if (entry.completed()) {
+                completed.put(sessionId, entry.leaderboard());
+            }
+        });
+        return completed;
+    }
+
+    /**
+     * Increases every time the leaderboard of a scored session is added.
+     */
+    public long getCompletedVersion() {
+        return completedPuts.get();
+    }
+
+    public void registerMetrics(MeterRegistry registry, String name, Iterable<Tag> tags) {
+        CaffeineCacheMetrics.monitor(registry, cache, name, tags);
+    }
+
+    public Stats getStats() {
+        CacheStats stats = cache.stats();
+        return new Stats(
+                cache.estimatedSize(),
+                cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount());
+    }
+
+    /**
+     * @param rows total number of leaderboard rows held, which is what the cache is bounded by
+     */
+    public record Stats(long sessions, long rows, long hits, long misses, long evictions) {
+    }
+
+    private record Entry(List<SessionLeaderboard> leaderboard, boolean completed) {
+    }
+}
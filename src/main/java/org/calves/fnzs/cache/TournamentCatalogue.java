@@ -0,0 +1,127 @@
+package org.calves.fnzs.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Per-guild cache of the tournament list.
+ * <p>
+ * The list is kept sorted by start date, newest first, together with an index by tournament ID. Once loaded it is
+ * always served from memory: when it gets older than the TTL the next read triggers a background reload and keeps
+ * getting the previous list until the new one is ready.
+ * <p>
+ * Tournaments missing from the list, because it could not be loaded or because they are not listed, are fetched one
+ * by one. Those lookups are cached for the TTL whether the tournament exists or not, so a poller asking again and again
+ * for an unknown tournament only reaches Yunite once per TTL. Lookups that fail because Yunite is unavailable are not
+ * cached.
+ *
+ * @author carlos.pedroalves
+ */
+public class TournamentCatalogue {
+
+    private static final Logger LOGGER = LogManager.getLogger(TournamentCatalogue.class);
+    private static final Comparator<Tournament> NEWEST_FIRST =
+            Comparator.comparing(Tournament::getStartDate, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private static final long MAX_LOOKUPS = 10_000;
+
+    private final AsyncLoadingCache<String, Entry> cache;
+    private final AsyncLoadingCache<LookupKey, Optional<Tournament>> lookups;
+
+    /**
+     * @param loader       returns the tournaments of a guild
+     * @param singleLoader returns a tournament of a guild given its ID, or null if there is no such tournament
+     */
+    public TournamentCatalogue(Function<String, List<Tournament>> loader, BiFunction<String, String, Tournament> singleLoader,
+                               Duration ttl) {
+        Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.cache = Caffeine.newBuilder()
+                .executor(executor)
+                .refreshAfterWrite(ttl)
+                .recordStats()
+                .buildAsync(guildId -> {
+                    Entry entry = Entry.of(loader.apply(guildId));
+                    LOGGER.info("Loaded {} tournaments of guild {}", entry.tournaments().size(), guildId);
+                    return entry;
+                });
+        this.lookups = Caffeine.newBuilder()
+                .executor(executor)
+                .maximumSize(MAX_LOOKUPS)
+                .expireAfterWrite(ttl)
+                .buildAsync(key -> {
+                    LOGGER.info("Retrieving tournament {} from guild {}", key.tournamentId(), key.guildId());
+                    return Optional.ofNullable(singleLoader.apply(key.guildId(), key.tournamentId()));
+                });
+        LOGGER.info("Tournament catalogue created with a TTL of {}", ttl);
+    }
+
+    /**
+     * Returns the tournaments of the guild, newest first. The list is immutable.
+     */
+    public List<Tournament> getTournaments(String guildId) {
+        return getTournamentsAsync(guildId).join();
+    }
+
+    public CompletableFuture<List<Tournament>> getTournamentsAsync(String guildId) {
+        return cache.get(guildId).thenApply(Entry::tournaments);
+    }
+
+    /**
+     * Returns the tournament, or null if the guild has no such tournament. Only calls Yunite when the catalogue of the
+     * guild is not loaded yet, or when it does not list the tournament and it was not looked up within the TTL.
+     */
+    public Tournament getTournament(String guildId, String tournamentId) {
+        return getTournamentAsync(guildId, tournamentId).join();
+    }
+
+    public CompletableFuture<Tournament> getTournamentAsync(String guildId, String tournamentId) {
+        return cache.get(guildId)
+                // A catalogue that cannot be loaded does not prevent looking up the tournament on its own
+                .handle((entry, ex) -> entry == null ? null : entry.byId().get(tournamentId))
+                .thenCompose(listed -> listed != null
+                        ? CompletableFuture.completedFuture(listed)
+                        : lookups.get(new LookupKey(guildId, tournamentId)).thenApply(found -> found.orElse(null)));
+    }
+
+    public void invalidate(String guildId) {
+        cache.synchronous().invalidate(guildId);
+        lookups.synchronous().asMap().keySet().removeIf(key -> key.guildId().equals(guildId));
+    }
+
+    public void registerMetrics(MeterRegistry registry, String name, Iterable<Tag> tags) {
+        CaffeineCacheMetrics.monitor(registry, cache, name, tags);
+    }
+
+    private record LookupKey(String guildId, String tournamentId) {
+    }
+
+    private record Entry(List<Tournament> tournaments, Map<String, Tournament> byId) {
+
+        private static Entry of(List<Tournament> tournaments) {
+            List<Tournament> sorted = tournaments.stream().sorted(NEWEST_FIRST).toList();
+            Map<String, Tournament> byId = new HashMap<>(sorted.size() * 2);
+            for (Tournament tournament : sorted) {
+                byId.put(tournament.getId(), tournament);
+            }
+            return new Entry(sorted, Map.copyOf(byId));
+        }
+    }
+}
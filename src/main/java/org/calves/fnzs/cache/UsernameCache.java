@@ -0,0 +1,98 @@
+package org.calves.fnzs.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe cache of Epic usernames keyed by Epic ID.
+ * <p>
+ * Accounts whose username could not be resolved are cached as well, with a shorter TTL, so they are not looked up
+ * again on every leaderboard load.
+ *
+ * @author carlos.pedroalves
+ */
+public class UsernameCache {
+
+    private final Cache<String, Entry> cache;
+
+    public UsernameCache(long maximumSize, Duration ttl, Duration unknownTtl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String epicId, Entry entry, long currentTime) {
+                        return entry.isUnknown() ? unknownTtl.toNanos() : ttl.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String epicId, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(epicId, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String epicId, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached entry, or null if the account is not cached.
+     */
+    public Entry get(String epicId) {
+        return cache.getIfPresent(epicId);
+    }
+
+    public void put(String epicId, String username) {
+        cache.put(epicId, new Entry(username));
+    }
+
+    public void putUnknown(String epicId) {
+        cache.put(epicId, Entry.UNKNOWN);
+    }
+
+    public void putAll(Map<String, String> usernames) {
+        usernames.forEach(this::put);
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public void registerMetrics(MeterRegistry registry, String name) {
+        CaffeineCacheMetrics.monitor(registry, cache, name);
+    }
+
+    public Stats getStats() {
+        CacheStats stats = cache.stats();
+        return new Stats(cache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    public record Stats(long size, long hits, long misses, long evictions) {
+    }
+
+    /**
+     * @param username the Epic username, or null if the account has no known username
+     */
+    public record Entry(String username) {
+
+        private static final Entry UNKNOWN = new Entry(null);
+
+        public boolean isUnknown() {
+            return username == null;
+        }
+    }
+}
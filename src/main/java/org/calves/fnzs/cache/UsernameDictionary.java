@@ -0,0 +1,201 @@
+package org.calves.fnzs.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, compact dictionary of Epic usernames keyed by Epic ID.
+ * <p>
+ * Epic IDs are 32 hexadecimal characters, so each one is stored as two longs in sorted parallel arrays and found with
+ * a binary search. Usernames are stored back to back as UTF-8 in a single byte array. An entry costs about 20 bytes
+ * plus its username, instead of two Strings and a map node. The few IDs that are not hexadecimal are kept in a
+ * regular map.
+ *
+ * @author carlos.pedroalves
+ */
+public class UsernameDictionary {
+
+    public static final UsernameDictionary EMPTY = new Builder(0).build();
+
+    private final long[] highBits;
+    private final long[] lowBits;
+    private final int[] offsets;
+    private final byte[] usernames;
+    private final Map<String, String> others;
+
+    private UsernameDictionary(long[] highBits, long[] lowBits, int[] offsets, byte[] usernames, Map<String, String> others) {
+        this.highBits = highBits;
+        this.lowBits = lowBits;
+        this.offsets = offsets;
+        this.usernames = usernames;
+        this.others = others;
+    }
+
+    /**
+     * Returns the username of the account, or null if the dictionary does not have it.
+     */
+    public String get(String epicId) {
+        if (epicId == null) {
+            return null;
+        }
+        if (!isHexId(epicId)) {
+            return others.get(epicId);
+        }
+        long high = parseHex(epicId, 0);
+        long low = parseHex(epicId, 16);
+        int index = search(high, low);
+        if (index < 0) {
+            return null;
+        }
+        return new String(usernames, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return highBits.length + others.size();
+    }
+
+    /**
+     * Returns the arrays backing the dictionary, to be persisted. They must not be modified.
+     */
+    public Data toData() {
+        return new Data(highBits, lowBits, offsets, usernames, others);
+    }
+
+    /**
+     * Rebuilds a dictionary from persisted arrays, which must come from {@link #toData()}.
+     */
+    public static UsernameDictionary fromData(Data data) {
+        if (data.highBits().length != data.lowBits().length || data.offsets().length != data.highBits().length + 1
+                || data.offsets()[data.highBits().length] != data.usernames().length) {
+            throw new IllegalArgumentException("Inconsistent username dictionary data");
+        }
+        return new UsernameDictionary(data.highBits(), data.lowBits(), data.offsets(), data.usernames(), Map.copyOf(data.others()));
+    }
+
+    private int search(long high, long low) {
+        int from = 0;
+        int to = highBits.length - 1;
+        while (from <= to) {
+            int middle = (from + to) >>> 1;
+            int comparison = compare(highBits[middle], lowBits[middle], high, low);
+            if (comparison < 0) {
+                from = middle + 1;
+            } else if (comparison > 0) {
+                to = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int comparison = Long.compareUnsigned(high1, high2);
+        return comparison != 0 ? comparison : Long.compareUnsigned(low1, low2);
+    }
+
+    private static boolean isHexId(String epicId) {
+        if (epicId.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < 32; i++) {
+            if (Character.digit(epicId.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String epicId, int from) {
+        long value = 0;
+        for (int i = from; i < from + 16; i++) {
+            value = (value << 4) | Character.digit(epicId.charAt(i), 16);
+        }
+        return value;
+    }
+
+    public record Data(long[] highBits, long[] lowBits, int[] offsets, byte[] usernames, Map<String, String> others) {
+    }
+
+    /**
+     * Collects entries in any order, then sorts them once when the dictionary is built. If an Epic ID is added more
+     * than once the last username wins. Not thread-safe.
+     */
+    public static class Builder {
+
+        private long[] highBits;
+        private long[] lowBits;
+        private String[] names;
+        private int size;
+        private final Map<String, String> others = new HashMap<>();
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            this.highBits = new long[capacity];
+            this.lowBits = new long[capacity];
+            this.names = new String[capacity];
+        }
+
+        public Builder add(String epicId, String username) {
+            if (epicId == null || username == null) {
+                return this;
+            }
+            if (!isHexId(epicId)) {
+                others.put(epicId, username);
+                return this;
+            }
+            if (size == highBits.length) {
+                int capacity = size + (size >> 1);
+                highBits = Arrays.copyOf(highBits, capacity);
+                lowBits = Arrays.copyOf(lowBits, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            highBits[size] = parseHex(epicId, 0);
+            lowBits[size] = parseHex(epicId, 16);
+            names[size] = username;
+            size++;
+            return this;
+        }
+
+        public UsernameDictionary build() {
+            // Sort positions by ID and keep the last insertion of duplicated IDs
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int comparison = compare(highBits[a], lowBits[a], highBits[b], lowBits[b]);
+                return comparison != 0 ? comparison : Integer.compare(a, b);
+            });
+
+            long[] sortedHigh = new long[size];
+            long[] sortedLow = new long[size];
+            byte[][] encoded = new byte[size][];
+            int count = 0;
+            int totalBytes = 0;
+            for (int i = 0; i < size; i++) {
+                int index = order[i];
+                if (count > 0 && sortedHigh[count - 1] == highBits[index] && sortedLow[count - 1] == lowBits[index]) {
+                    totalBytes -= encoded[count - 1].length;
+                    count--;
+                }
+                sortedHigh[count] = highBits[index];
+                sortedLow[count] = lowBits[index];
+                encoded[count] = names[index].getBytes(StandardCharsets.UTF_8);
+                totalBytes += encoded[count].length;
+                count++;
+            }
+
+            int[] offsets = new int[count + 1];
+            byte[] usernames = new byte[totalBytes];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(encoded[i], 0, usernames, offsets[i], encoded[i].length);
+                offsets[i + 1] = offsets[i] + encoded[i].length;
+            }
+            return new UsernameDictionary(Arrays.copyOf(sortedHigh, count), Arrays.copyOf(sortedLow, count), offsets,
+                    usernames, Map.copyOf(others));
+        }
+    }
+}
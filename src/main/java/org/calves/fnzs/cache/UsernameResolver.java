@@ -0,0 +1,182 @@
+package org.calves.fnzs.cache;
+
+import controller.AccountsController;
+import dto.canonical.Account;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.metrics.FnzsMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resolves Epic usernames for a whole leaderboard at once.
+ * <p>
+ * Known accounts are answered from the bulk-loaded {@link UsernameDictionary}, then from the {@link UsernameCache} of
+ * accounts looked up since; the remaining Epic IDs are deduplicated, split into batches and looked up on a dedicated
+ * bounded pool, so unknown players never run on (or starve) the common pool. Every result, including accounts without
+ * a username, is written back to the cache.
+ * <p>
+ * Resolvers created with {@link #withOwnPool(String, int)} share the cache and the dictionary but look accounts up on
+ * their own pool, so a burst of unknown players in one place does not delay lookups anywhere else.
+ *
+ * @author carlos.pedroalves
+ */
+public class UsernameResolver {
+
+    private static final Logger LOGGER = LogManager.getLogger(UsernameResolver.class);
+
+    private final UsernameCache cache;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final AtomicReference<UsernameDictionary> dictionary;
+
+    public UsernameResolver(UsernameCache cache, int maxConcurrency, int batchSize) {
+        this(cache, new AtomicReference<>(UsernameDictionary.EMPTY), "username-resolver", maxConcurrency, batchSize);
+    }
+
+    private UsernameResolver(UsernameCache cache, AtomicReference<UsernameDictionary> dictionary, String name,
+                             int maxConcurrency, int batchSize) {
+        this.cache = cache;
+        this.dictionary = dictionary;
+        this.batchSize = batchSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a resolver sharing the cache and the dictionary of this one, looking accounts up on its own pool.
+     *
+     * @param name prefix of the names of its threads
+     */
+    public UsernameResolver withOwnPool(String name, int maxConcurrency) {
+        return new UsernameResolver(cache, dictionary, name, maxConcurrency, batchSize);
+    }
+
+    /**
+     * Returns the display name of every given Epic ID. Accounts without a known username get {@code Unknown(<epicId>)}.
+     */
+    public Map<String, String> resolve(Collection<String> epicIds) {
+        Map<String, String> usernames = new HashMap<>(epicIds.size() * 2);
+        Set<String> missing = new LinkedHashSet<>();
+        UsernameDictionary known = dictionary.get();
+        for (String epicId : epicIds) {
+            String username = known.get(epicId);
+            if (username != null) {
+                usernames.put(epicId, username);
+                continue;
+            }
+            UsernameCache.Entry entry = cache.get(epicId);
+            if (entry == null) {
+                missing.add(epicId);
+            } else {
+                usernames.put(epicId, displayName(epicId, entry.username()));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            LOGGER.info("Resolving {} unknown usernames", missing.size());
+            usernames.putAll(lookup(new ArrayList<>(missing)));
+        }
+        return usernames;
+    }
+
+    /**
+     * Whether the name is the placeholder shown for an account without a known username.
+     */
+    public static boolean isUnknown(String epicId, String displayName) {
+        return displayName == null || displayName.equals(displayName(epicId, null));
+    }
+
+    /**
+     * Replaces the dictionary of known accounts, for every resolver sharing it. Lookups in progress keep using the
+     * previous one.
+     */
+    public void setDictionary(UsernameDictionary dictionary) {
+        this.dictionary.set(dictionary);
+    }
+
+    public UsernameDictionary getDictionary() {
+        return dictionary.get();
+    }
+
+    public void registerMetrics(MeterRegistry registry) {
+        Gauge.builder("fnzs.usernames.dictionary.size", this, resolver -> resolver.getDictionary().size())
+                .description("Accounts in the bulk-loaded username dictionary")
+                .register(registry);
+    }
+
+    private Map<String, String> lookup(List<String> epicIds) {
+        List<Future<Map<String, String>>> batches = new ArrayList<>();
+        for (int i = 0; i < epicIds.size(); i += batchSize) {
+            List<String> batch = epicIds.subList(i, Math.min(i + batchSize, epicIds.size()));
+            batches.add(executor.submit(() -> lookupBatch(batch)));
+        }
+
+        Map<String, String> usernames = new HashMap<>(epicIds.size() * 2);
+        for (Future<Map<String, String>> batch : batches) {
+            try {
+                usernames.putAll(batch.get());
+            } catch (ExecutionException ex) {
+                LOGGER.error("Failed to resolve a batch of usernames", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                batches.forEach(future -> future.cancel(true));
+                break;
+            }
+        }
+
+        // Whatever could not be resolved is still displayed
+        for (String epicId : epicIds) {
+            usernames.computeIfAbsent(epicId, id -> displayName(id, null));
+        }
+        return usernames;
+    }
+
+    private Map<String, String> lookupBatch(List<String> epicIds) {
+        Map<String, String> usernames = new HashMap<>(epicIds.size() * 2);
+        int unknown = 0;
+        for (String epicId : epicIds) {
+            String username = null;
+            try {
+                Account account = AccountsController.insertAccountWithId(epicId, null, null);
+                if (account != null) {
+                    username = account.getUsername();
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Failed to resolve username for {}", epicId, ex);
+            }
+            if (username == null) {
+                cache.putUnknown(epicId);
+                unknown++;
+            } else {
+                cache.put(epicId, username);
+            }
+            usernames.put(epicId, displayName(epicId, username));
+        }
+        FnzsMetrics.usernamesLookedUp("resolved", epicIds.size() - unknown);
+        FnzsMetrics.usernamesLookedUp("unknown", unknown);
+        return usernames;
+    }
+
+    private static String displayName(String epicId, String username) {
+        return username == null ? String.format("Unknown(%s)", epicId) : username;
+    }
+}
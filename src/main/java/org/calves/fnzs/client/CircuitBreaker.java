@@ -0,0 +1,70 @@
+package org.calves.fnzs.client;
+
+import java.time.Duration;
+
+/**
+ * Stops calling a failing service for a while.
+ * <p>
+ * The circuit opens after a number of consecutive failures. Once the open duration is over a single trial call is let
+ * through: if it succeeds the circuit closes, otherwise it opens again.
+ *
+ * @author carlos.pedroalves
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    synchronized boolean tryAcquire() {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    yield false;
+                }
+                state = State.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called when a call let through never reached the service, so the next one can be the trial instead.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.nanoTime() - openNanos;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,44 @@
+package org.calves.fnzs.client;
+
+import java.time.Duration;
+
+/**
+ * Token bucket rate limiter. Tokens are reserved in arrival order, so callers wait for their turn instead of racing
+ * for the next free token.
+ *
+ * @author carlos.pedroalves
+ */
+class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private long nextFreeNanos = System.nanoTime();
+
+    TokenBucket(double tokensPerSecond, int burst) {
+        this.nanosPerToken = (long) (1_000_000_000L / tokensPerSecond);
+        this.burstNanos = nanosPerToken * Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token, waiting for it if the bucket is empty.
+     *
+     * @return false if the token would only be available after the maximum wait, in which case nothing is taken
+     */
+    boolean acquire(Duration maxWait) throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // Unused capacity accumulates up to the burst size
+            long start = Math.max(nextFreeNanos, now - burstNanos + nanosPerToken);
+            wait = start - now;
+            if (wait > maxWait.toNanos()) {
+                return false;
+            }
+            nextFreeNanos = start + nanosPerToken;
+        }
+        if (wait > 0) {
+            Thread.sleep(Duration.ofNanos(wait));
+        }
+        return true;
+    }
+}
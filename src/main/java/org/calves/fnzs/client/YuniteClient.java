@@ -0,0 +1,346 @@
+package org.calves.fnzs.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.yunite4j.YuniteApi;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+import org.calves.yunite4j.utils.DeserializationUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Resilient access to the Yunite API, shared by everything that talks to Yunite.
+ * <p>
+ * Every call goes through the same steps:
+ * <ul>
+ *     <li>identical calls already in flight are joined instead of being sent again;</li>
+ *     <li>a token bucket keeps the request rate under Yunite's limits;</li>
+ *     <li>each attempt has a timeout, and attempts failing with a rate limit, a server error or an I/O error are retried
+ *     with jittered exponential backoff;</li>
+ *     <li>after repeated failures a circuit breaker stops calling Yunite for a while.</li>
+ * </ul>
+ * When a call cannot be made or fails for good, the last successful response to the same call is served instead, if
+ * there is one. The {@link YuniteApi} is passed in, so the client can be pointed at a stub.
+ *
+ * @author carlos.pedroalves
+ */
+public class YuniteClient {
+
+    private static final Logger LOGGER = LogManager.getLogger(YuniteClient.class);
+    // yunite4j reports HTTP errors as exceptions whose message has the status code after "HTTP" or "status", e.g.
+    // "HTTP 503" or "Unexpected status code: 429". Any other number in the message, like an ID, is not a status
+    private static final Pattern RETRYABLE_STATUS = Pattern.compile(
+            "\\b(?:HTTP(?:/\\d(?:\\.\\d)?)?|status(?: code)?)\\s*[:=]?\\s*(?:429|5\\d\\d)\\b|\\bToo Many Requests\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private final YuniteApi api;
+    private final Settings settings;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<RequestKey, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final Cache<RequestKey, Object> lastResponses;
+    private final Map<String, EndpointCounters> counters = new ConcurrentHashMap<>();
+
+    public YuniteClient(YuniteApi api, Settings settings) {
+        this.api = api;
+        this.settings = settings;
+        this.rateLimiter = new TokenBucket(settings.requestsPerSecond(), settings.burst());
+        this.circuitBreaker = new CircuitBreaker(settings.circuitFailureThreshold(), settings.circuitOpenDuration());
+        this.lastResponses = Caffeine.newBuilder()
+                .maximumWeight(settings.staleMaxRows())
+                .weigher((RequestKey key, Object response) -> response instanceof Collection<?> rows ? rows.size() + 1 : 1)
+                .build();
+        LOGGER.info("Yunite client created with {}", settings);
+    }
+
+    public List<Tournament> getTournaments(String guildId) {
+        return call("getTournaments", true, UnaryOperator.identity(), () -> api.getTournaments(guildId), guildId);
+    }
+
+    public Tournament getTournament(String guildId, String tournamentId) {
+        return call("getTournament", true, UnaryOperator.identity(), () -> api.getTournament(guildId, tournamentId), guildId, tournamentId);
+    }
+
+    public List<MatchSession> getTournamentMatches(String guildId, String tournamentId) {
+        return call("getTournamentMatches", true, UnaryOperator.identity(), () -> api.getTournamentMatches(guildId, tournamentId),
+                guildId, tournamentId);
+    }
+
+    /**
+     * Teams are enriched in place by whoever builds the leaderboard, so callers that joined a call in flight get their
+     * own copy. Tournament leaderboards are not kept to be served stale, the last computed leaderboard is served instead.
+     */
+    public List<Team> getTournamentLeaderboard(String guildId, String tournamentId) {
+        return call("getTournamentLeaderboard", false, YuniteClient::copyTeams, () -> api.getTournamentLeaderboard(guildId, tournamentId),
+                guildId, tournamentId);
+    }
+
+    /**
+     * Match leaderboards are cached by the caller, so they are not kept here to be served stale.
+     */
+    public List<SessionLeaderboard> getMatchLeaderboard(String guildId, String tournamentId, String sessionId) {
+        return call("getMatchLeaderboard", false, UnaryOperator.identity(), () -> api.getMatchLeaderboard(guildId, tournamentId, sessionId),
+                guildId, tournamentId, sessionId);
+    }
+
+    /**
+     * Returns the counters of every endpoint called so far, sorted by endpoint. Latencies are in milliseconds and only
+     * count attempts that reached Yunite.
+     */
+    public Map<String, EndpointStats> getStats() {
+        return counters.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().toStats(), (a, b) -> a, TreeMap::new));
+    }
+
+    public void registerMetrics(MeterRegistry registry, Iterable<Tag> tags) {
+        Gauge.builder("fnzs.yunite.circuit.open", circuitBreaker, breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("Whether calls to Yunite are currently being cut off")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * @param staleable whether the response is kept to be served when Yunite is unavailable. Kept responses are shared
+     *                  by every caller, so only responses nobody modifies can be staleable
+     * @param copier    copies the response for callers that joined the call in flight, so each one can modify its own
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T call(String endpoint, boolean staleable, UnaryOperator<T> copier, Supplier<T> call, Object... arguments) {
+        RequestKey key = new RequestKey(endpoint, List.of(arguments));
+        EndpointCounters endpointCounters = counters.computeIfAbsent(endpoint, name -> new EndpointCounters());
+        endpointCounters.calls.increment();
+
+        InFlight created = new InFlight();
+        InFlight existing = inFlight.compute(key, (requestKey, current) -> {
+            if (current == null) {
+                return created;
+            }
+            current.followers.incrementAndGet();
+            return current;
+        });
+        if (existing != created) {
+            endpointCounters.coalesced.increment();
+            FnzsMetrics.yuniteResilience("coalesced", endpoint);
+            return copier.apply((T) join(existing.response));
+        }
+
+        try {
+            T result = callWithRetries(endpoint, call, endpointCounters);
+            if (staleable) {
+                lastResponses.put(key, result);
+            }
+            // Once removed nobody else can join, so the response is only copied when someone already did
+            inFlight.remove(key, created);
+            created.response.complete(created.followers.get() == 0 ? result : copier.apply(result));
+            return result;
+        } catch (RuntimeException ex) {
+            endpointCounters.failures.increment();
+            Object stale = staleable && ex instanceof YuniteUnavailableException ? lastResponses.getIfPresent(key) : null;
+            if (stale == null) {
+                created.response.completeExceptionally(ex);
+                throw ex;
+            }
+            LOGGER.warn("Serving stale {} response: {}", endpoint, ex.getMessage());
+            endpointCounters.stale.increment();
+            FnzsMetrics.yuniteResilience("stale", endpoint);
+            created.response.complete(stale);
+            return (T) stale;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    private <T> T callWithRetries(String endpoint, Supplier<T> call, EndpointCounters endpointCounters) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (!rateLimiter.acquire(settings.timeout())) {
+                    throw new YuniteUnavailableException(String.format("Rate limit reached calling %s", endpoint));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new YuniteUnavailableException(String.format("Interrupted waiting to call %s", endpoint), ex);
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                throw new YuniteUnavailableException(String.format("Circuit open, not calling %s", endpoint));
+            }
+
+            long start = System.nanoTime();
+            try {
+                T result = FnzsMetrics.yuniteCall(endpoint, () -> callWithTimeout(endpoint, call));
+                endpointCounters.record(System.nanoTime() - start);
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (RuntimeException ex) {
+                endpointCounters.record(System.nanoTime() - start);
+                if (Thread.currentThread().isInterrupted()) {
+                    circuitBreaker.onIgnored();
+                    throw ex;
+                }
+                if (!isRetryable(ex)) {
+                    // Yunite answered, it is just not a valid request
+                    circuitBreaker.onSuccess();
+                    throw ex;
+                }
+                circuitBreaker.onFailure();
+                if (attempt >= settings.maxRetries()) {
+                    throw new YuniteUnavailableException(String.format("%s failed after %d attempts", endpoint, attempt + 1), ex);
+                }
+                endpointCounters.retries.increment();
+                FnzsMetrics.yuniteResilience("retry", endpoint);
+                backOff(endpoint, attempt, ex);
+            }
+        }
+    }
+
+    private <T> T callWithTimeout(String endpoint, Supplier<T> call) {
+        Future<T> future = executor.submit(call::get);
+        try {
+            return future.get(settings.timeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            throw new YuniteUnavailableException(String.format("Timed out after %s calling %s", settings.timeout(), endpoint), ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new YuniteUnavailableException(String.format("Interrupted calling %s", endpoint), ex);
+        }
+    }
+
+    private void backOff(String endpoint, int attempt, RuntimeException cause) {
+        // Full jitter: a random wait up to the exponential backoff, so retries from many callers spread out
+        long maxMillis = Math.min(settings.maxBackoff().toMillis(), settings.backoff().toMillis() << Math.min(attempt, 20));
+        long millis = ThreadLocalRandom.current().nextLong(maxMillis + 1);
+        LOGGER.warn("Retrying {} in {} ms after: {}", endpoint, millis, cause.getMessage());
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new YuniteUnavailableException(String.format("Interrupted retrying %s", endpoint), ex);
+        }
+    }
+
+    /**
+     * Returns whether the call failed because Yunite is unavailable, as opposed to Yunite rejecting the request.
+     */
+    static boolean isRetryable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof YuniteUnavailableException || cause instanceof IOException) {
+                return true;
+            }
+            if (cause.getMessage() != null && RETRYABLE_STATUS.matcher(cause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw ex;
+        }
+    }
+
+    private static List<Team> copyTeams(List<Team> teams) {
+        return teams.stream().map(DeserializationUtils::createDeepCopy).collect(Collectors.toList());
+    }
+
+    /**
+     * @param requestsPerSecond         sustained request rate allowed by the token bucket
+     * @param burst                     requests that can be sent at once after being idle
+     * @param timeout                   time limit of each attempt, and of the wait for a token
+     * @param maxRetries                retries after the first attempt
+     * @param backoff                   base of the exponential backoff between retries
+     * @param maxBackoff                upper bound of the backoff
+     * @param circuitFailureThreshold   consecutive failures that open the circuit
+     * @param circuitOpenDuration       time the circuit stays open before a trial call
+     * @param staleMaxRows              rows of the last responses kept to be served when Yunite is unavailable
+     */
+    public record Settings(double requestsPerSecond, int burst, Duration timeout, int maxRetries, Duration backoff,
+                           Duration maxBackoff, int circuitFailureThreshold, Duration circuitOpenDuration,
+                           long staleMaxRows) {
+    }
+
+    /**
+     * Counters of one endpoint. Latencies are in milliseconds.
+     */
+    public record EndpointStats(long calls, long coalesced, long retries, long failures, long staleServed,
+                                long averageMillis, long maxMillis) {
+    }
+
+    private record RequestKey(String endpoint, List<Object> arguments) {
+    }
+
+    private static class InFlight {
+
+        private final CompletableFuture<Object> response = new CompletableFuture<>();
+        // Callers waiting for the response instead of calling Yunite themselves
+        private final AtomicInteger followers = new AtomicInteger();
+    }
+
+    private static class EndpointCounters {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder stale = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            attempts.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private EndpointStats toStats() {
+            long count = attempts.sum();
+            return new EndpointStats(calls.sum(), coalesced.sum(), retries.sum(), failures.sum(), stale.sum(),
+                    count == 0 ? 0 : Duration.ofNanos(totalNanos.sum() / count).toMillis(),
+                    Duration.ofNanos(maxNanos.get()).toMillis());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.calves.fnzs.client;
+
+/**
+ * Thrown when Yunite could not be called or kept failing, as opposed to Yunite rejecting the request.
+ *
+ * @author carlos.pedroalves
+ */
+public class YuniteUnavailableException extends RuntimeException {
+
+    public YuniteUnavailableException(String message) {
+        super(message);
+    }
+
+    public YuniteUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
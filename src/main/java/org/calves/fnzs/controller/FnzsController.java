@@ -1,266 +1,279 @@
 package org.calves.fnzs.controller;
 
-import controller.AccountsController;
+import com.vaadin.flow.shared.Registration;
 import controller.MongoDbController;
-import dto.canonical.Account;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.cache.LeaderboardCache;
+import org.calves.fnzs.cache.SessionLeaderboardCache;
+import org.calves.fnzs.cache.UsernameCache;
+import org.calves.fnzs.cache.UsernameDictionary;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.client.YuniteClient;
+import org.calves.fnzs.export.ExportResponseCache;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.fnzs.leaderboard.LeaderboardUpdate;
+import org.calves.fnzs.leaderboard.SeasonLeaderboard;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.fnzs.utils.EnvironmentUtils;
 import org.calves.yunite4j.YuniteApi;
 import org.calves.yunite4j.dto.ApiConfig;
-import org.calves.yunite4j.dto.MatchSession;
-import org.calves.yunite4j.dto.SessionLeaderboard;
 import org.calves.yunite4j.dto.Team;
 import org.calves.yunite4j.dto.Tournament;
-import org.calves.yunite4j.utils.DeserializationUtils;
 
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author carlos.pedroalves
  */
 public class FnzsController {
 
-    private static final YuniteApi API = new YuniteApi(new ApiConfig(System.getenv("YUNITE_API_KEY")));
     private static final Logger LOGGER = LogManager.getLogger(FnzsController.class);
+    private static final YuniteApi YUNITE_API = new YuniteApi(new ApiConfig(System.getenv("YUNITE_API_KEY")));
     private static final String DEFAULT_GUILD_ID = "1213253795333541960";
-    private static final HashMap<String, List<SessionLeaderboard>> SESSIONS_LEADERBOARD = new HashMap<>();
-    private static final HashMap<String, String> USERNAME_MAPS = new HashMap<>();
-
-    public static List<Tournament> getTournaments() {
-        LOGGER.info("Retrieving tournaments");
-        return API.getTournaments(DEFAULT_GUILD_ID);
+    private static final UsernameCache USERNAME_MAPS = new UsernameCache(
+            EnvironmentUtils.getLong("FNZS_USERNAME_CACHE_MAX_SIZE", 100_000),
+            Duration.ofDays(1),
+            Duration.ofMinutes(EnvironmentUtils.getLong("FNZS_USERNAME_UNKNOWN_TTL_MINUTES", 10)));
+    // Usernames are the same whatever the guild, so every guild shares the cache and the dictionary of this resolver
+    private static final UsernameResolver USERNAME_RESOLVER = new UsernameResolver(USERNAME_MAPS,
+            EnvironmentUtils.getInt("FNZS_USERNAME_RESOLVER_CONCURRENCY", 4),
+            EnvironmentUtils.getInt("FNZS_USERNAME_RESOLVER_BATCH_SIZE", 25));
+    private static final Map<String, GuildContext> GUILDS = createGuilds();
+    private static final int MAX_SEASON_TOURNAMENTS = EnvironmentUtils.getInt("FNZS_SEASON_MAX_TOURNAMENTS", 20);
+
+    static {
+        USERNAME_MAPS.registerMetrics(FnzsMetrics.REGISTRY, "usernames");
+        USERNAME_RESOLVER.registerMetrics(FnzsMetrics.REGISTRY);
     }
 
-    public static Tournament getTournament(String guildId, String tournamentId) {
-        LOGGER.info("Retrieving tournament {} from guild {}", tournamentId, DEFAULT_GUILD_ID);
-        try {
-            return API.getTournament(DEFAULT_GUILD_ID, tournamentId);
-        } catch (Exception ex) {
-            return null;
+    /**
+     * Creates the context of every guild in {@code FNZS_GUILD_IDS}, a comma separated list that defaults to the
+     * default guild. The default guild is always served.
+     */
+    private static Map<String, GuildContext> createGuilds() {
+        Set<String> guildIds = new LinkedHashSet<>();
+        guildIds.add(DEFAULT_GUILD_ID);
+        String configured = System.getenv("FNZS_GUILD_IDS");
+        if (configured != null) {
+            for (String guildId : configured.split(",")) {
+                if (!guildId.isBlank()) {
+                    guildIds.add(guildId.trim());
+                }
+            }
+        }
+        // Only enabled when a directory is configured, it must outlive the process to be of any use
+        String snapshotDirectory = System.getenv("FNZS_SNAPSHOT_DIR");
+        Map<String, GuildContext> guilds = new LinkedHashMap<>();
+        for (String guildId : guildIds) {
+            // The default guild keeps the top directory, so snapshots written before guilds were split still apply
+            Path directory = snapshotDirectory == null ? null
+                    : guildId.equals(DEFAULT_GUILD_ID) ? Path.of(snapshotDirectory) : Path.of(snapshotDirectory, guildId);
+            guilds.put(guildId, new GuildContext(guildId, YUNITE_API, USERNAME_RESOLVER, guildIds.size(), directory,
+                    guildId.equals(DEFAULT_GUILD_ID)));
         }
+        return Collections.unmodifiableMap(guilds);
     }
 
-    public static List<Team> getTournamentLeaderboard(Tournament tournament) {
-
-        Instant start = Instant.now();
-
-        LOGGER.info("Retrieving leaderboard from tournament {}", tournament.getId());
-        List<Team> teams = API.getTournamentLeaderboard(DEFAULT_GUILD_ID, tournament.getId());
-        LOGGER.info("Retrieved a total of {} teams", teams.size());
-
-        // First we enrich data with Epic usernames
-        LOGGER.info("Enriching data Epic usernames");
-
-        teams.parallelStream().forEach(team -> {
-            team.getUsers().parallelStream().forEach(user -> {
-                String username = USERNAME_MAPS.get(user.getEpicId());
-                if (username == null) {
-                    Account account = AccountsController.insertAccountWithId(user.getEpicId(), null, null);
-                    if (account != null) {
-                        username = account.getUsername();
-                    }
-                    if (username == null) {
-                        username = String.format("Unknown(%s)", user.getEpicId());
-                    }
-                }
-                user.setEpicUsername(username);
-            });
-        });
-
-        LOGGER.info("Finished enriching data Epic usernames");
-
-        // Then we enrich games data
-        enrichTournamentMatches(tournament, API.getTournamentMatches(DEFAULT_GUILD_ID, tournament.getId()), teams);
-
-        // Then we split team members (while merging member data to make sure the totals and averages are still correct)
-        List<Team> resultingTeams = splitAndMergeTeams(teams);
-        recalculateCountedStats(tournament, resultingTeams);
-        LOGGER.info("Finished splitting and merging leaderboard for individual rankings");
-
-        // Then we sort team members by score and set placements accordingly
-        sortAndSetPlacement(tournament.getTiebreakers(), resultingTeams);
-        LOGGER.info("Finished sorting leaderboard");
-
-        Instant end = Instant.now();
-        LOGGER.info(Duration.between(start, end));
+    /**
+     * Returns the IDs of the guilds served, the default one first.
+     */
+    public static List<String> getGuildIds() {
+        return List.copyOf(GUILDS.keySet());
+    }
 
-        return resultingTeams;
+    public static boolean servesGuild(String guildId) {
+        return guildId == null || GUILDS.containsKey(guildId);
     }
 
-    public static void loadUsernames() {
-        LOGGER.debug("Loading usernames");
-        USERNAME_MAPS.clear();
-        MongoDbController.getAccountsIdsAndNames().parallelStream().forEach(x -> {
-            USERNAME_MAPS.put(x.getId(), x.getUsername());
-        });
-        LOGGER.debug("Loaded {} usernames", USERNAME_MAPS.size());
+    /**
+     * Returns the tournaments of the guild, newest first, served from the guild's tournament catalogue.
+     * The returned list is shared and immutable.
+     */
+    public static List<Tournament> getTournaments(String guildId) {
+        GuildContext guild = guild(guildId);
+        LOGGER.debug("Retrieving tournaments of guild {}", guild.guildId);
+        return guild.tournaments.getTournaments(guild.guildId);
     }
 
-    public static int getTeamsInMatch(String sessionId) {
+    /**
+     * Returns the tournament, or null if it cannot be retrieved.
+     *
+     * @throws NoSuchElementException if the guild is not served
+     */
+    public static Tournament getTournament(String guildId, String tournamentId) {
+        GuildContext guild = guild(guildId);
         try {
-            return SESSIONS_LEADERBOARD.get(sessionId).size();
+            return guild.tournaments.getTournament(guild.guildId, tournamentId);
         } catch (Exception ex) {
-            LOGGER.error("No session leaderboard for match {}", sessionId);
-            return -1;
+            LOGGER.error("Could not retrieve tournament {} from guild {}", tournamentId, guild.guildId, ex);
+            return null;
         }
     }
 
-    private static List<Team> splitAndMergeTeams(List<Team> teams) {
-        List<Team> individualTeams = new ArrayList<>();
-        for (Team team : teams) {
-            for (Team.User user : team.getUsers()) {
-                Team existingTeam = findTeamByUser(individualTeams, user);
-                if (existingTeam != null) {
-                    // Sum the relevant fields
-                    existingTeam.setKills(existingTeam.getKills() + team.getKills());
-                    existingTeam.setGames(existingTeam.getGames() + team.getGames());
-                    existingTeam.setWins(existingTeam.getWins() + team.getWins());
-                    existingTeam.setSumSecondsSurvived(existingTeam.getSumSecondsSurvived() + team.getSumSecondsSurvived());
-                    // Merge gameList and corrections
-                    existingTeam.getGameList().addAll(team.getGameList());
-                    existingTeam.getCorrections().addAll(team.getCorrections());
-                    // Recalculate averages
-                    existingTeam.setAveragePlacement(calculateAveragePlacement(existingTeam.getGameList()));
-                    existingTeam.setAverageSecondsSurvived(existingTeam.getSumSecondsSurvived() / existingTeam.getGames());
-                    existingTeam.setKpm(existingTeam.getKills() / existingTeam.getSumSecondsSurvived() * 60);
-                } else {
-                    Team newTeam = new Team();
-                    newTeam.setUsers(new ArrayList<>(List.of(user)));
-                    newTeam.setKills(team.getKills());
-                    newTeam.setGames(team.getGames());
-                    newTeam.setWins(team.getWins());
-                    newTeam.setSumSecondsSurvived(team.getSumSecondsSurvived());
-                    newTeam.setGameList(new ArrayList<>(team.getGameList()));
-                    newTeam.setCorrections(new ArrayList<>(team.getCorrections()));
-                    newTeam.setAveragePlacement(calculateAveragePlacement(team.getGameList()));
-                    newTeam.setAverageSecondsSurvived(team.getSumSecondsSurvived() / team.getGames());
-                    newTeam.setKpm(team.getKills() / team.getSumSecondsSurvived() * 60);
-                    individualTeams.add(newTeam);
-                }
-            }
-        }
-
-        return individualTeams;
+    public static CompletableFuture<List<Tournament>> getTournamentsAsync(String guildId) {
+        return withGuild(guildId, guild -> guild.tournaments.getTournamentsAsync(guild.guildId));
     }
 
-    private static Team findTeamByUser(List<Team> teams, Team.User user) {
-        for (Team team : teams) {
-            if (team.getUsers().stream().anyMatch(x -> x.getEpicId().equals(user.getEpicId()))) {
-                return team;
-            }
-        }
-        return null;
+    public static CompletableFuture<Tournament> getTournamentAsync(String guildId, String tournamentId) {
+        return withGuild(guildId, guild -> guild.tournaments.getTournamentAsync(guild.guildId, tournamentId)
+                .exceptionally(ex -> {
+                    LOGGER.error("Could not retrieve tournament {} from guild {}", tournamentId, guild.guildId, ex);
+                    return null;
+                }));
     }
 
-    private static void recalculateCountedStats(Tournament tournament, List<Team> teams) {
-
-        int maxGamesScored = tournament.getMaxGamesScored();
-        if (maxGamesScored == 0) {
-            // 0 means there is no limit
-            maxGamesScored = Integer.MAX_VALUE;
-        }
-        int minPlayersInGame = tournament.getConsensusMin();
+    /**
+     * Returns the individual leaderboard of the tournament, served from the guild's leaderboard cache.
+     * The returned list is shared between viewers and must not be modified.
+     */
+    public static List<Team> getTournamentLeaderboard(String guildId, Tournament tournament) {
+        return getLeaderboardSnapshot(guildId, tournament).getTeams();
+    }
 
-        for (Team team : teams) {
+    /**
+     * Returns the shared, immutable snapshot of the tournament's individual leaderboard.
+     */
+    public static LeaderboardSnapshot getLeaderboardSnapshot(String guildId, Tournament tournament) {
+        return guild(guildId).leaderboards.get(tournament);
+    }
 
-            List<Team.Game> copy = team.getGameList().stream().map(DeserializationUtils::createDeepCopy).toList();
-            // We start by assuming every match counts (to reset whatever came from Yunite API)
-            copy.forEach(x -> x.setCounts(true));
+    /**
+     * Returns the cached snapshot of the tournament's leaderboard, or null if it is not cached, without calling Yunite.
+     */
+    public static LeaderboardSnapshot getCachedLeaderboardSnapshot(String guildId, String tournamentId) {
+        return guild(guildId).leaderboards.getIfPresent(tournamentId);
+    }
 
-            // We ignore matches that are not fully scored
-            copy.stream().filter(x -> !x.getSession().getStatus().equals(MatchSession.Status.SCORED)).forEach(x -> x.setCounts(false));
+    /**
+     * Same as {@link #getLeaderboardSnapshot(String, Tournament)} without blocking. Concurrent requests for the same
+     * tournament share one computation, and cancelling the returned future does not cancel it.
+     */
+    public static CompletableFuture<LeaderboardSnapshot> getLeaderboardSnapshotAsync(String guildId, Tournament tournament) {
+        return withGuild(guildId, guild -> guild.leaderboards.getAsync(tournament).copy());
+    }
 
-            // Games with fewer players that expected do not count
-            copy.stream().filter(x -> x.getSession().getPlayers() < minPlayersInGame).forEach(x -> x.setCounts(false));
+    /**
+     * Returns the season leaderboard over the given tournaments of the guild. Tournaments are resolved and their
+     * leaderboards computed concurrently. Fails with a {@link NoSuchElementException} if a tournament cannot be
+     * retrieved, and with an {@link IllegalArgumentException} if there are more than {@code FNZS_SEASON_MAX_TOURNAMENTS}.
+     */
+    public static CompletableFuture<SeasonLeaderboard> getSeasonLeaderboardAsync(String guildId, List<String> tournamentIds) {
+        // The same tournaments in any order or repeated are the same season
+        List<String> seasonIds = tournamentIds.stream().distinct().sorted().toList();
+        if (seasonIds.size() > MAX_SEASON_TOURNAMENTS) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    String.format("A season has at most %d tournaments", MAX_SEASON_TOURNAMENTS)));
+        }
+        return withGuild(guildId, guild -> {
+            List<CompletableFuture<Tournament>> tournaments = seasonIds.stream()
+                    .map(tournamentId -> getTournamentAsync(guild.guildId, tournamentId).thenApply(tournament -> {
+                        if (tournament == null) {
+                            throw new NoSuchElementException(String.format("Tournament %s could not be retrieved", tournamentId));
+                        }
+                        return tournament;
+                    }))
+                    .toList();
+            return CompletableFuture.allOf(tournaments.toArray(new CompletableFuture[0]))
+                    .thenCompose(ignored -> guild.seasons.aggregate(tournaments.stream().map(CompletableFuture::join).toList()));
+        });
+    }
 
-            // Calculate how many games we still need to ignore
-            int gamesToRemove = (int) (copy.stream().filter(Team.Game::isCounts).count() - maxGamesScored);
-            if (gamesToRemove > 0) {
-                copy.stream().sorted(Comparator.comparing(Team.Game::getScore)).limit(gamesToRemove).forEach(dto -> dto.setCounts(false));
-            }
+    /**
+     * Subscribes to the live leaderboard of the tournament. The tournament is refreshed in the background while it has
+     * subscribers, and every new snapshot is delivered to the listener with the rows that changed.
+     */
+    public static Registration subscribeToLeaderboard(String guildId, Tournament tournament, LeaderboardSnapshot current,
+                                                      Consumer<LeaderboardUpdate> listener) {
+        return guild(guildId).liveLeaderboards.subscribe(tournament, current, listener);
+    }
 
-            team.setCountedKills(copy.stream().filter(Team.Game::isCounts).mapToInt(Team.Game::getKills).sum());
-            team.setCountedGames((int) copy.stream().filter(Team.Game::isCounts).count());
-            team.setCountedWins((int) copy.stream().filter(x -> x.isCounts() && x.getPlacement() == 1).count());
-            team.setScore(copy.stream().filter(Team.Game::isCounts).mapToInt(Team.Game::getScore).sum());
-            team.setPlacementScore(copy.stream().filter(Team.Game::isCounts).mapToInt(Team.Game::getPlacementScore).sum());
-            team.setEliminationScore(copy.stream().filter(Team.Game::isCounts).mapToInt(Team.Game::getEliminationScore).sum());
+    public static ExportResponseCache getExportResponses(String guildId) {
+        return guild(guildId).exportResponses;
+    }
 
-            team.setGameList(copy);
-        }
+    public static LeaderboardCache.Stats getLeaderboardCacheStats(String guildId) {
+        return guild(guildId).leaderboards.getStats();
     }
 
-    private static void sortAndSetPlacement(List<Tournament.TieBreaker> tieBreakers, List<Team> teams) {
+    public static SessionLeaderboardCache.Stats getSessionLeaderboardCacheStats(String guildId) {
+        return guild(guildId).sessionLeaderboards.getStats();
+    }
 
-        Comparator<Team> comparator = Comparator.comparingInt(Team::getScore).reversed(); // Primary sort by score (descending)
-        for (Tournament.TieBreaker tieBreaker : tieBreakers) {
-            comparator = switch (tieBreaker) {
-                case WINS -> comparator.thenComparing(Team::getWins, Comparator.reverseOrder()); // Higher wins first
-                case AVERAGE_ELIMINATIONS ->
-                        comparator.thenComparing(team -> (double) team.getKills() / team.getGameList().size(), Comparator.reverseOrder()); // Higher average eliminations first
-                case SUM_ELIMINATIONS ->
-                        comparator.thenComparing(Team::getKills, Comparator.reverseOrder()); // Higher sum eliminations first
-                case AVERAGE_PLACEMENT ->
-                        comparator.thenComparing(Team::getAveragePlacement); // Lower average placement first
-                case SCORE_PER_MATCH ->
-                        comparator.thenComparing(team -> (double) team.getScore() / team.getGameList().size(), Comparator.reverseOrder()); // Higher score per match first
-                case SUM_TIME_SURVIVED ->
-                        comparator.thenComparing(Team::getSumSecondsSurvived, Comparator.reverseOrder()); // Higher sum time survived first
-                case AVERAGE_TIME_SURVIVED ->
-                        comparator.thenComparing(Team::getAverageSecondsSurvived, Comparator.reverseOrder()); // Higher average time survived first
-            };
-        }
+    public static Map<String, YuniteClient.EndpointStats> getYuniteStats(String guildId) {
+        return guild(guildId).client.getStats();
+    }
 
-        // Sort using the dynamic comparator
-        teams.sort(comparator);
+    public static UsernameCache.Stats getUsernameCacheStats() {
+        return USERNAME_MAPS.getStats();
+    }
 
-        // Assign placements
-        int currentPlacement = 1;
-        for (int i = 0; i < teams.size(); i++) {
-            if (i == 0 || comparator.compare(teams.get(i), teams.get(i - 1)) != 0) {
-                teams.get(i).setPlacement(currentPlacement);
-            } else {
-                teams.get(i).setPlacement(teams.get(i - 1).getPlacement());
+    /**
+     * Loads every known account into a new username dictionary and swaps it in once it is complete. Usernames keep
+     * being resolved from the previous dictionary and the cache while it loads. Called on startup before
+     * {@link #restoreSnapshots()}, whose persisted dictionary is only used if this failed.
+     */
+    public static void loadUsernames() {
+        LOGGER.debug("Loading usernames");
+        long start = System.nanoTime();
+        try {
+            var accounts = MongoDbController.getAccountsIdsAndNames();
+            UsernameDictionary.Builder builder = new UsernameDictionary.Builder(accounts.size());
+            for (var account : accounts) {
+                builder.add(account.getId(), account.getUsername());
             }
-            currentPlacement++;
+            UsernameDictionary dictionary = builder.build();
+            USERNAME_RESOLVER.setDictionary(dictionary);
+            LOGGER.info("Loaded {} usernames in {} ms", dictionary.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (Exception ex) {
+            LOGGER.error("Failed to load usernames, keeping the previous ones", ex);
         }
     }
 
-    private static double calculateAveragePlacement(List<Team.Game> games) {
-        return games.stream().mapToDouble(Team.Game::getPlacement).sum() / games.size();
+    /**
+     * Loads the state persisted by a previous run, if any, and starts persisting the current one.
+     */
+    public static void restoreSnapshots() {
+        if (System.getenv("FNZS_SNAPSHOT_DIR") == null) {
+            LOGGER.info("No snapshot directory configured, starting cold");
+            return;
+        }
+        Duration interval = Duration.ofSeconds(EnvironmentUtils.getLong("FNZS_SNAPSHOT_INTERVAL_SECONDS", 300));
+        for (GuildContext guild : GUILDS.values()) {
+            guild.persistentState.restore();
+            guild.persistentState.scheduleFlushes(interval);
+        }
     }
 
-    private static void enrichTournamentMatches(Tournament tournament, List<MatchSession> matches, List<Team> teams) {
-        for (Team team : teams) {
-            for (Team.Game game : team.getGameList()) {
-                game.setSession(matches.stream().filter(x -> x.getSessionId().equals(game.getSessionId())).findFirst().get());
-                enrichMatchScore(tournament.getPointSystem(), game);
-                if (!SESSIONS_LEADERBOARD.containsKey(game.getSessionId())) {
-                    SESSIONS_LEADERBOARD.put(game.getSessionId(), API.getMatchLeaderboard(DEFAULT_GUILD_ID, tournament.getId(), game.getSessionId()));
-                }
-            }
+    /**
+     * Returns the context of the guild, the default guild if none is given.
+     *
+     * @throws NoSuchElementException if the guild is not served
+     */
+    private static GuildContext guild(String guildId) {
+        GuildContext guild = GUILDS.get(guildId == null ? DEFAULT_GUILD_ID : guildId);
+        if (guild == null) {
+            throw new NoSuchElementException(String.format("Guild %s is not served", guildId));
         }
+        return guild;
     }
 
-    private static void enrichMatchScore(Tournament.PointSystem pointSystem, Team.Game game) {
-        if (pointSystem.getKillCap() == 0) {
-            // 0 means no limit
-            pointSystem.setKillCap(Integer.MAX_VALUE);
-        }
-        int initialScore = game.getScore();
-        int validKills = Math.min(game.getKills(), pointSystem.getKillCap());
-        int eliminationScore = validKills * pointSystem.getPointsPerKill();
-        int placementScore = pointSystem.getCompletePointsPerPlacement().get(game.getPlacement());
-        game.setEliminationScore(eliminationScore);
-        game.setPlacementScore(placementScore);
-        game.setScore(eliminationScore + placementScore);
-        if (initialScore != game.getScore()) {
-            LOGGER.error("Calculated score has a difference of {} compared to score from Yunite", game.getScore() - initialScore);
+    private static <T> CompletableFuture<T> withGuild(String guildId, Function<GuildContext, CompletableFuture<T>> action) {
+        try {
+            return action.apply(guild(guildId));
+        } catch (NoSuchElementException ex) {
+            return CompletableFuture.failedFuture(ex);
         }
     }
 }
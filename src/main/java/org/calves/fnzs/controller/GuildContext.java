@@ -0,0 +1,168 @@
+package org.calves.fnzs.controller;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.cache.LeaderboardCache;
+import org.calves.fnzs.cache.SessionLeaderboardCache;
+import org.calves.fnzs.cache.TournamentCatalogue;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.client.YuniteClient;
+import org.calves.fnzs.client.YuniteUnavailableException;
+import org.calves.fnzs.export.ExportResponseCache;
+import org.calves.fnzs.leaderboard.LeaderboardPipeline;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.fnzs.leaderboard.LiveLeaderboardHub;
+import org.calves.fnzs.leaderboard.SeasonAggregator;
+import org.calves.fnzs.leaderboard.SessionLeaderboardFetcher;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.fnzs.store.PersistentState;
+import org.calves.fnzs.store.SnapshotStore;
+import org.calves.fnzs.utils.EnvironmentUtils;
+import org.calves.yunite4j.YuniteApi;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * Everything that serves the tournaments of one guild.
+ * <p>
+ * Guilds share nothing but the Yunite connection and the usernames, which are the same for everyone. Each one has its
+ * own Yunite client, with its share of the rate limit and its own circuit breaker, its own caches bounded by its own
+ * memory budget and its own threads, username lookups included. A big event in one guild can then fill its caches,
+ * use up its rate limit or trip its circuit breaker without slowing down or evicting anything of the others.
+ * <p>
+ * The memory budget is counted in rows: match leaderboard rows, individual leaderboard rows, teams and players kept
+ * for incremental refreshes, season totals, rows of the Yunite responses kept to be served stale, and exported
+ * response bodies counted as rows of a few bytes. Each of them gets a fixed share
+ * of {@code MEMORY_BUDGET_ROWS}.
+ * <p>
+ * Settings are read from {@code FNZS_GUILD_<guildId>_<setting>} and fall back to {@code FNZS_<setting>}, which
+ * applies to every guild. The Yunite rate limit is the exception: the global setting is the limit of the API key,
+ * split evenly between the guilds.
+ *
+ * @author carlos.pedroalves
+ */
+class GuildContext {
+
+    private static final Logger LOGGER = LogManager.getLogger(GuildContext.class);
+    // Shares of the memory budget, match leaderboards being the bulk of what is kept
+    private static final double SESSION_ROWS_SHARE = 0.4;
+    private static final double STATE_ROWS_SHARE = 0.3;
+    private static final double LEADERBOARD_ROWS_SHARE = 0.15;
+    private static final double SEASON_ROWS_SHARE = 0.05;
+    private static final double STALE_ROWS_SHARE = 0.05;
+    private static final double EXPORT_ROWS_SHARE = 0.05;
+
+    final String guildId;
+    final YuniteClient client;
+    final SessionLeaderboardCache sessionLeaderboards;
+    final LeaderboardPipeline pipeline;
+    final LeaderboardCache leaderboards;
+    final TournamentCatalogue tournaments;
+    final SeasonAggregator seasons;
+    final LiveLeaderboardHub liveLeaderboards;
+    final PersistentState persistentState;
+    final ExportResponseCache exportResponses;
+
+    /**
+     * @param usernameResolver  resolver whose username cache and dictionary are shared by every guild
+     * @param guildCount        number of guilds sharing the Yunite API key
+     * @param snapshotDirectory where the state of the guild is persisted, or null to not persist it
+     * @param persistUsernames  whether this guild persists the shared username dictionary
+     */
+    GuildContext(String guildId, YuniteApi api, UsernameResolver usernameResolver, int guildCount, Path snapshotDirectory,
+                 boolean persistUsernames) {
+        this.guildId = guildId;
+        Duration leaderboardTtl = Duration.ofSeconds(getLong("LEADERBOARD_TTL_SECONDS", 60));
+        long memoryBudgetRows = getLong("MEMORY_BUDGET_ROWS", 1_000_000);
+
+        // The rate limit belongs to the API key, so unless a guild has its own every guild gets an even share of it
+        long requestsPerSecond = EnvironmentUtils.getLong(guildVariable("YUNITE_REQUESTS_PER_SECOND"), 0);
+        long burst = EnvironmentUtils.getLong(guildVariable("YUNITE_BURST"), 0);
+        this.client = new YuniteClient(api, new YuniteClient.Settings(
+                requestsPerSecond > 0 ? requestsPerSecond : EnvironmentUtils.getLong("FNZS_YUNITE_REQUESTS_PER_SECOND", 10) / (double) guildCount,
+                (int) (burst > 0 ? burst : Math.max(1, EnvironmentUtils.getLong("FNZS_YUNITE_BURST", 20) / guildCount)),
+                Duration.ofSeconds(getLong("YUNITE_TIMEOUT_SECONDS", 10)),
+                (int) getLong("YUNITE_MAX_RETRIES", 3),
+                Duration.ofMillis(getLong("YUNITE_BACKOFF_MILLIS", 250)),
+                Duration.ofSeconds(getLong("YUNITE_MAX_BACKOFF_SECONDS", 5)),
+                (int) getLong("YUNITE_CIRCUIT_FAILURES", 5),
+                Duration.ofSeconds(getLong("YUNITE_CIRCUIT_OPEN_SECONDS", 30)),
+                (long) (memoryBudgetRows * STALE_ROWS_SHARE)));
+        this.sessionLeaderboards = new SessionLeaderboardCache(
+                (long) (memoryBudgetRows * SESSION_ROWS_SHARE),
+                Duration.ofHours(getLong("SESSION_CACHE_IDLE_HOURS", 12)),
+                leaderboardTtl);
+        SessionLeaderboardFetcher fetcher = new SessionLeaderboardFetcher(client, guildId,
+                (int) getLong("SESSION_FETCH_CONCURRENCY", 8),
+                Duration.ofSeconds(getLong("SESSION_FETCH_TIMEOUT_SECONDS", 60)));
+        UsernameResolver guildUsernameResolver = usernameResolver.withOwnPool("username-resolver-" + guildId,
+                (int) getLong("USERNAME_RESOLVER_CONCURRENCY", 4));
+        this.pipeline = new LeaderboardPipeline(client, guildId, sessionLeaderboards, fetcher, guildUsernameResolver,
+                getLong("LEADERBOARD_INCREMENTAL", 1) != 0,
+                leaderboardTtl.multipliedBy(10),
+                (long) (memoryBudgetRows * STATE_ROWS_SHARE));
+        this.leaderboards = new LeaderboardCache(
+                (tournament, previous) -> previous == null
+                        ? new LeaderboardSnapshot(tournament, pipeline.build(tournament), this::getTeamsInMatch)
+                        : previous.withTeams(tournament, pipeline.build(tournament), this::getTeamsInMatch),
+                leaderboardTtl,
+                (long) (memoryBudgetRows * LEADERBOARD_ROWS_SHARE),
+                Executors.newVirtualThreadPerTaskExecutor());
+        this.tournaments = new TournamentCatalogue(client::getTournaments, this::fetchTournament,
+                Duration.ofSeconds(getLong("TOURNAMENT_CATALOGUE_TTL_SECONDS", 300)));
+        this.seasons = new SeasonAggregator(leaderboards::getAsync, leaderboardTtl.multipliedBy(10),
+                (long) (memoryBudgetRows * SEASON_ROWS_SHARE));
+        this.liveLeaderboards = new LiveLeaderboardHub(leaderboards::refresh,
+                Duration.ofSeconds(getLong("LIVE_REFRESH_SECONDS", leaderboardTtl.toSeconds())),
+                "live-leaderboard-" + guildId);
+        this.persistentState = snapshotDirectory == null ? null
+                : new PersistentState(new SnapshotStore(snapshotDirectory), sessionLeaderboards,
+                persistUsernames ? usernameResolver : null, leaderboards);
+        this.exportResponses = new ExportResponseCache((long) (memoryBudgetRows * EXPORT_ROWS_SHARE));
+
+        Iterable<Tag> tags = Tags.of("guild", guildId);
+        sessionLeaderboards.registerMetrics(FnzsMetrics.REGISTRY, "session_leaderboards", tags);
+        leaderboards.registerMetrics(FnzsMetrics.REGISTRY, "leaderboards", tags);
+        tournaments.registerMetrics(FnzsMetrics.REGISTRY, "tournaments", tags);
+        liveLeaderboards.registerMetrics(FnzsMetrics.REGISTRY, tags);
+        client.registerMetrics(FnzsMetrics.REGISTRY, tags);
+        LOGGER.info("Serving guild {}", guildId);
+    }
+
+    int getTeamsInMatch(String sessionId) {
+        try {
+            return sessionLeaderboards.get(sessionId).size();
+        } catch (Exception ex) {
+            LOGGER.error("No session leaderboard for match {} of guild {}", sessionId, guildId);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the tournament, or null if Yunite does not know it. Fails if Yunite is unavailable, so the answer is not
+     * remembered.
+     */
+    private Tournament fetchTournament(String guildId, String tournamentId) {
+        try {
+            return client.getTournament(guildId, tournamentId);
+        } catch (YuniteUnavailableException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Tournament {} not found in guild {}: {}", tournamentId, guildId, ex.getMessage());
+            return null;
+        }
+    }
+
+    private long getLong(String setting, long defaultValue) {
+        return EnvironmentUtils.getLong(guildVariable(setting), EnvironmentUtils.getLong("FNZS_" + setting, defaultValue));
+    }
+
+    private String guildVariable(String setting) {
+        return "FNZS_GUILD_" + guildId + "_" + setting;
+    }
+}
@@ -0,0 +1,50 @@
+package org.calves.fnzs.export;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-guild cache of the exports of each snapshot and of the response bodies rendered from them.
+ * <p>
+ * Bodies are bounded by the guild's memory budget, which is counted in rows, so they are weighed as rows of
+ * {@value #BYTES_PER_ROW} bytes. Exports go away with their snapshot.
+ *
+ * @author carlos.pedroalves
+ */
+public class ExportResponseCache {
+
+    private static final int BYTES_PER_ROW = 128;
+
+    private final Cache<LeaderboardSnapshot, LeaderboardExport> exports = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+    private final Cache<ResponseKey, byte[]> responses;
+
+    /**
+     * @param maximumRows how many rows the cached bodies are worth at most
+     */
+    public ExportResponseCache(long maximumRows) {
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(maximumRows)
+                .weigher((ResponseKey key, byte[] body) -> body.length / BYTES_PER_ROW + 1)
+                .build();
+    }
+
+    public LeaderboardExport getExport(LeaderboardSnapshot snapshot) {
+        return exports.get(snapshot, LeaderboardExport::new);
+    }
+
+    /**
+     * Returns the cached body of the response, rendering it if needed. Returns null, and caches nothing, if the
+     * renderer returns null.
+     */
+    public byte[] getResponse(long version, LeaderboardExport.Format format, String resource, boolean gzip, Supplier<byte[]> renderer) {
+        return responses.get(new ResponseKey(version, format, resource, gzip), key -> renderer.get());
+    }
+
+    private record ResponseKey(long version, LeaderboardExport.Format format, String resource, boolean gzip) {
+    }
+}
@@ -0,0 +1,159 @@
+package org.calves.fnzs.export;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.calves.fnzs.leaderboard.GameSummary;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.yunite4j.dto.Team;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine-readable form of a {@link LeaderboardSnapshot}.
+ * <p>
+ * Every row is serialized to JSON and to CSV once, when the export of a snapshot is created, so a page of any size is
+ * just the concatenation of already encoded rows.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardExport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] LEADERBOARD_CSV_HEADER = ("rank,epicId,username,score,games,eliminations,wins,averagePlacement,"
+            + "averageMinutesSurvived,countedGames,countedKills,countedWins\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] GAMES_CSV_HEADER = "sessionId,timestamp,score,counts,kills,placement,teamsInMatch\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final LeaderboardSnapshot snapshot;
+    private final byte[][] jsonRows;
+    private final byte[][] csvRows;
+    private final Map<String, Team> teamsByEpicId;
+
+    public LeaderboardExport(LeaderboardSnapshot snapshot) {
+        this.snapshot = snapshot;
+        List<Team> teams = snapshot.getTeams();
+        this.jsonRows = new byte[teams.size()][];
+        this.csvRows = new byte[teams.size()][];
+        this.teamsByEpicId = new HashMap<>(teams.size() * 2);
+        for (int i = 0; i < teams.size(); i++) {
+            Team team = teams.get(i);
+            Row row = Row.of(team);
+            jsonRows[i] = toJson(row);
+            csvRows[i] = row.toCsv().getBytes(StandardCharsets.UTF_8);
+            teamsByEpicId.put(row.epicId(), team);
+        }
+    }
+
+    public LeaderboardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the entries from {@code offset}, in ranking order, at most {@code limit} of them.
+     */
+    public byte[] getLeaderboard(Format format, int offset, int limit) {
+        int from = Math.clamp(offset, 0, jsonRows.length);
+        int to = (int) Math.min(jsonRows.length, (long) from + Math.max(0, limit));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (format == Format.CSV) {
+            output.writeBytes(LEADERBOARD_CSV_HEADER);
+            for (int i = from; i < to; i++) {
+                output.writeBytes(csvRows[i]);
+            }
+            return output.toByteArray();
+        }
+        output.writeBytes(String.format("{\"tournamentId\":%s,\"tournamentName\":%s,\"computedAt\":\"%s\",\"total\":%d,\"offset\":%d,\"entries\":[",
+                quote(snapshot.getTournament().getId()), quote(snapshot.getTournament().getName()), snapshot.getComputedAt(),
+                jsonRows.length, from).getBytes(StandardCharsets.UTF_8));
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                output.write(',');
+            }
+            output.writeBytes(jsonRows[i]);
+        }
+        output.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the games of a player, or null if the player is not in the leaderboard.
+     */
+    public byte[] getGames(Format format, String epicId) {
+        Team team = teamsByEpicId.get(epicId);
+        if (team == null) {
+            return null;
+        }
+        List<GameSummary> games = snapshot.getGameSummaries(team);
+        if (format == Format.JSON) {
+            return toJson(games.stream().map(GameRow::of).toList());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.writeBytes(GAMES_CSV_HEADER);
+        for (GameSummary game : games) {
+            output.writeBytes(GameRow.of(game).toCsv().getBytes(StandardCharsets.UTF_8));
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] toJson(Object value) {
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static String quote(String value) {
+        return new String(toJson(value), StandardCharsets.UTF_8);
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public enum Format {
+        JSON, CSV
+    }
+
+    record Row(int rank, String epicId, String username, int score, int games, int eliminations, int wins,
+               double averagePlacement, double averageMinutesSurvived, int countedGames, int countedKills, int countedWins) {
+
+        static Row of(Team team) {
+            Team.User user = team.getUsers().getFirst();
+            return new Row(team.getPlacement(), user.getEpicId(), user.getEpicUsername(), team.getScore(), team.getGames(),
+                    team.getKills(), team.getWins(), team.getAveragePlacement(), team.getAverageSecondsSurvived() / 60,
+                    team.getCountedGames(), team.getCountedKills(), team.getCountedWins());
+        }
+
+        String toCsv() {
+            return String.join(",", String.valueOf(rank), csv(epicId), csv(username), String.valueOf(score),
+                    String.valueOf(games), String.valueOf(eliminations), String.valueOf(wins), String.valueOf(averagePlacement),
+                    String.valueOf(averageMinutesSurvived), String.valueOf(countedGames), String.valueOf(countedKills),
+                    String.valueOf(countedWins)) + "\n";
+        }
+    }
+
+    record GameRow(String sessionId, String timestamp, int score, boolean counts, int kills, int placement, int teamsInMatch) {
+
+        static GameRow of(GameSummary game) {
+            return new GameRow(game.sessionId(), String.valueOf(game.timestamp()), game.score(), game.counts(), game.kills(),
+                    game.placement(), game.teamsInMatch());
+        }
+
+        String toCsv() {
+            return String.join(",", csv(sessionId), csv(timestamp), String.valueOf(score), String.valueOf(counts),
+                    String.valueOf(kills), String.valueOf(placement), String.valueOf(teamsInMatch)) + "\n";
+        }
+    }
+}
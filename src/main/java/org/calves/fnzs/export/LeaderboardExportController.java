@@ -0,0 +1,217 @@
+package org.calves.fnzs.export;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.controller.FnzsController;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Read-only feed of the individual leaderboards, for stream overlays and bots.
+ * <p>
+ * Responses are built from a {@link LeaderboardExport} created once per snapshot, gzipped once and kept in the
+ * {@link ExportResponseCache} of the guild, bounded by its memory budget. Each response has a strong ETag derived from the snapshot version, the request and the encoding, so
+ * pollers that send it back get a {@code 304} without anything being serialized or compressed. While the leaderboard
+ * is cached that check is made before anything else, so pollers never cause calls to Yunite.
+ * <p>
+ * Leaderboards that are not cached yet are computed asynchronously. If that takes too long the request is answered
+ * with a {@code 503} and a {@code Retry-After}, while the computation goes on for the next poll.
+ * <p>
+ * Tournaments of guilds other than the default one are served with the {@code guild} parameter.
+ *
+ * @author carlos.pedroalves
+ */
+@RestController
+@RequestMapping("/api/tournaments")
+public class LeaderboardExportController {
+
+    private static final Logger LOGGER = LogManager.getLogger(LeaderboardExportController.class);
+    private static final MediaType CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    private static final int MAX_LIMIT = 10_000;
+    // Leaderboards not cached yet are waited for this long before pollers are told to retry
+    private static final long LOAD_TIMEOUT_SECONDS = 20;
+    private static final long RETRY_AFTER_SECONDS = 5;
+
+    /**
+     * @param format json or csv
+     * @param top    shorthand for the first N entries, takes precedence over offset and limit
+     */
+    @GetMapping("/{tournamentId}/leaderboard")
+    public CompletableFuture<ResponseEntity<byte[]>> getLeaderboard(@PathVariable String tournamentId,
+                                                 @RequestParam(required = false) String guild,
+                                                 @RequestParam(defaultValue = "json") String format,
+                                                 @RequestParam(required = false) Integer top,
+                                                 @RequestParam(defaultValue = "0") int offset,
+                                                 @RequestParam(defaultValue = "" + MAX_LIMIT) int limit,
+                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        int from = top != null ? 0 : Math.max(0, offset);
+        int count = Math.clamp(top != null ? top : limit, 0, MAX_LIMIT);
+        return respond(guild, tournamentId, format, "leaderboard:" + from + ":" + count, ifNoneMatch, acceptEncoding,
+                (export, parsedFormat) -> export.getLeaderboard(parsedFormat, from, count));
+    }
+
+    @GetMapping("/{tournamentId}/players/{epicId}/games")
+    public CompletableFuture<ResponseEntity<byte[]>> getGames(@PathVariable String tournamentId,
+                                           @PathVariable String epicId,
+                                           @RequestParam(required = false) String guild,
+                                           @RequestParam(defaultValue = "json") String format,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return respond(guild, tournamentId, format, "games:" + epicId, ifNoneMatch, acceptEncoding,
+                (export, parsedFormat) -> export.getGames(parsedFormat, epicId));
+    }
+
+    private CompletableFuture<ResponseEntity<byte[]>> respond(String guildId, String tournamentId, String format, String resource,
+                                                              String ifNoneMatch, String acceptEncoding, Renderer renderer) {
+        LeaderboardExport.Format parsedFormat;
+        try {
+            parsedFormat = LeaderboardExport.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        if (!FnzsController.servesGuild(guildId)) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        boolean gzip = acceptsGzip(acceptEncoding);
+        // A cached leaderboard needs no tournament lookup, which could call Yunite
+        LeaderboardSnapshot cached = FnzsController.getCachedLeaderboardSnapshot(guildId, tournamentId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(
+                    respond(guildId, cached, tournamentId, parsedFormat, resource, ifNoneMatch, gzip, renderer));
+        }
+
+        // Computed without holding a request thread, and pollers are asked to come back if it takes long
+        return FnzsController.getTournamentAsync(guildId, tournamentId)
+                .thenCompose(tournament -> tournament == null
+                        ? CompletableFuture.<LeaderboardSnapshot>completedFuture(null)
+                        : FnzsController.getLeaderboardSnapshotAsync(guildId, tournament))
+                .thenApply(snapshot -> snapshot == null
+                        ? ResponseEntity.notFound().<byte[]>build()
+                        : respond(guildId, snapshot, tournamentId, parsedFormat, resource, ifNoneMatch, gzip, renderer))
+                .exceptionally(ex -> {
+                    LOGGER.error("Could not export leaderboard of tournament {}", tournamentId, ex);
+                    return retryLater();
+                })
+                .completeOnTimeout(retryLater(), LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private ResponseEntity<byte[]> respond(String guildId, LeaderboardSnapshot snapshot, String tournamentId,
+                                           LeaderboardExport.Format parsedFormat, String resource, String ifNoneMatch, boolean gzip,
+                                           Renderer renderer) {
+        // Same snapshot, request and encoding means the same bytes
+        String etag = String.format("\"%s-%d-%s-%s%s\"", tournamentId, snapshot.getVersion(), parsedFormat.name().toLowerCase(Locale.ROOT),
+                resource.replace('"', '_'), gzip ? "-gzip" : "");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setCacheControl(CacheControl.noCache());
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        ExportResponseCache cache = FnzsController.getExportResponses(guildId);
+        LeaderboardExport export = cache.getExport(snapshot);
+        byte[] body = cache.getResponse(snapshot.getVersion(), parsedFormat, resource, gzip, () -> {
+            byte[] plain = renderer.render(export, parsedFormat);
+            return plain == null ? null : gzip ? gzip(plain) : plain;
+        });
+        if (body == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        headers.setContentType(parsedFormat == LeaderboardExport.Format.CSV ? CSV : MediaType.APPLICATION_JSON);
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    private static ResponseEntity<byte[]> retryLater() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                .build();
+    }
+
+    /**
+     * Whether gzip is acceptable, honouring q-values: {@code gzip;q=0} refuses it, and {@code *} only stands for it
+     * when gzip is not listed.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException ex) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (name.equals("*")) {
+                any = Math.max(any, quality);
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            // Proxies may weaken the tag when they compress, the bytes it stands for are the same
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] plain) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(plain.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(plain);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return output.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface Renderer {
+        byte[] render(LeaderboardExport export, LeaderboardExport.Format format);
+    }
+}
@@ -0,0 +1,193 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which games count for each player and sums the counted stats.
+ * <p>
+ * Every player is handled in a single pass over their games using reusable primitive buffers. When a player has more
+ * eligible games than the tournament scores, the best ones are picked with a bounded min-heap instead of sorting
+ * every game.
+ * <p>
+ * Games are shared between teammates, who may count different games, so which games count is never written on the
+ * games themselves: the totals are set on the player's entry and {@link #countedGames} gives the flags of each game.
+ * <p>
+ * Only eligible games, fully scored and with at least {@code consensusMin} players, compete for the
+ * {@code maxGamesScored} slots. On equal scores the games that come later in the player's list are kept.
+ *
+ * @author carlos.pedroalves
+ */
+public class CountedStatsEngine {
+
+    private CountedStatsEngine() {
+    }
+
+    public static void recalculate(Tournament tournament, List<Team> teams) {
+        int maxGamesScored = maxGamesScored(tournament);
+        Buffers buffers = new Buffers();
+        for (Team team : teams) {
+            recalculate(team, maxGamesScored, tournament.getConsensusMin(), buffers);
+        }
+    }
+
+    /**
+     * Returns whether each game of the player counts, in the order of the player's games.
+     */
+    public static boolean[] countedGames(Tournament tournament, Team team) {
+        Buffers buffers = new Buffers();
+        selectCountedGames(team.getGameList(), maxGamesScored(tournament), tournament.getConsensusMin(), buffers);
+        return Arrays.copyOf(buffers.counts, team.getGameList().size());
+    }
+
+    private static int maxGamesScored(Tournament tournament) {
+        // 0 means there is no limit
+        return tournament.getMaxGamesScored() == 0 ? Integer.MAX_VALUE : tournament.getMaxGamesScored();
+    }
+
+    private static void recalculate(Team team, int maxGamesScored, int minPlayersInGame, Buffers buffers) {
+        List<Team.Game> games = team.getGameList();
+        int size = games.size();
+        selectCountedGames(games, maxGamesScored, minPlayersInGame, buffers);
+        int[] scores = buffers.scores;
+        boolean[] counts = buffers.counts;
+
+        int countedKills = 0;
+        int countedGames = 0;
+        int countedWins = 0;
+        int score = 0;
+        int placementScore = 0;
+        int eliminationScore = 0;
+        for (int i = 0; i < size; i++) {
+            Team.Game game = games.get(i);
+            if (counts[i]) {
+                countedKills += game.getKills();
+                countedGames++;
+                if (game.getPlacement() == 1) {
+                    countedWins++;
+                }
+                score += scores[i];
+                placementScore += game.getPlacementScore();
+                eliminationScore += game.getEliminationScore();
+            }
+        }
+
+        team.setCountedKills(countedKills);
+        team.setCountedGames(countedGames);
+        team.setCountedWins(countedWins);
+        team.setScore(score);
+        team.setPlacementScore(placementScore);
+        team.setEliminationScore(eliminationScore);
+    }
+
+    /**
+     * Fills the buffers with the score of each game and whether it counts.
+     */
+    private static void selectCountedGames(List<Team.Game> games, int maxGamesScored, int minPlayersInGame, Buffers buffers) {
+        int size = games.size();
+        buffers.ensureCapacity(size);
+        int[] scores = buffers.scores;
+        boolean[] counts = buffers.counts;
+
+        // Only fully scored games with enough players are eligible
+        int eligible = 0;
+        for (int i = 0; i < size; i++) {
+            Team.Game game = games.get(i);
+            MatchSession session = game.getSession();
+            scores[i] = game.getScore();
+            counts[i] = session != null && session.getStatus() == MatchSession.Status.SCORED && session.getPlayers() >= minPlayersInGame;
+            if (counts[i]) {
+                eligible++;
+            }
+        }
+
+        if (eligible > maxGamesScored) {
+            keepBestGames(size, maxGamesScored, buffers);
+        }
+    }
+
+    /**
+     * Keeps only the {@code limit} best scoring eligible games. On equal scores the earliest games are dropped first.
+     */
+    private static void keepBestGames(int size, int limit, Buffers buffers) {
+        int[] scores = buffers.scores;
+        boolean[] counts = buffers.counts;
+        // Min-heap of game indexes, the root is the worst game kept so far
+        int[] heap = buffers.heap;
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (!counts[i]) {
+                continue;
+            }
+            if (heapSize < limit) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, scores);
+            } else if (isWorse(heap[0], i, scores)) {
+                counts[heap[0]] = false;
+                heap[0] = i;
+                siftDown(heap, heapSize, scores);
+            } else {
+                counts[i] = false;
+            }
+        }
+    }
+
+    private static boolean isWorse(int game, int other, int[] scores) {
+        return scores[game] < scores[other] || (scores[game] == scores[other] && game < other);
+    }
+
+    private static void siftUp(int[] heap, int position, int[] scores) {
+        int game = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!isWorse(game, heap[parent], scores)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = game;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, int[] scores) {
+        int position = 0;
+        int game = heap[0];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && isWorse(heap[child + 1], heap[child], scores)) {
+                child++;
+            }
+            if (!isWorse(heap[child], game, scores)) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = game;
+    }
+
+    /**
+     * Scratch arrays reused across the players of one recalculation.
+     */
+    private static class Buffers {
+        private int[] scores = new int[0];
+        private boolean[] counts = new boolean[0];
+        private int[] heap = new int[0];
+
+        void ensureCapacity(int size) {
+            if (scores.length < size) {
+                int capacity = Math.max(size, scores.length * 2);
+                scores = new int[capacity];
+                counts = new boolean[capacity];
+                heap = new int[capacity];
+            }
+        }
+    }
+}
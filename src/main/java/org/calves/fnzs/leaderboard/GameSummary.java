@@ -0,0 +1,13 @@
+package org.calves.fnzs.leaderboard;
+
+import java.time.Instant;
+
+/**
+ * Flat, read-only view of one game of a player, holding only what the leaderboard details show.
+ *
+ * @param teamsInMatch number of teams in the match leaderboard, or -1 if it is not known
+ * @author carlos.pedroalves
+ */
+public record GameSummary(String sessionId, Instant timestamp, int score, boolean counts, int kills, int placement,
+                          int teamsInMatch) {
+}
@@ -0,0 +1,118 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.Team;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits Yunite teams into one entry per player, merging the data of players that played in more than one team.
+ * <p>
+ * Players are indexed by Epic ID and their totals are accumulated in a single pass, so the cost is linear in the
+ * number of team members. Averages and KPM are only computed once every team has been merged.
+ * <p>
+ * Teammates share the same game objects, which are never modified once the teams are enriched. Which games count
+ * is decided per player by {@link CountedStatsEngine} without writing it on the games.
+ *
+ * @author carlos.pedroalves
+ */
+public class IndividualAggregator {
+
+    private IndividualAggregator() {
+    }
+
+    public static List<Team> splitAndMerge(List<Team> teams) {
+        // Linked so players keep the order in which they first appear, like the Yunite leaderboard
+        Map<String, PlayerAccumulator> players = new LinkedHashMap<>(teams.size() * 2);
+        for (Team team : teams) {
+            for (Team.User user : team.getUsers()) {
+                players.computeIfAbsent(user.getEpicId(), epicId -> new PlayerAccumulator(user)).add(team);
+            }
+        }
+
+        List<Team> individualTeams = new ArrayList<>(players.size());
+        for (PlayerAccumulator player : players.values()) {
+            individualTeams.add(player.build());
+        }
+        return individualTeams;
+    }
+
+    /**
+     * Builds the individual entry of a single player from every team the player was part of.
+     */
+    public static Team merge(String epicId, Collection<Team> teams) {
+        PlayerAccumulator player = null;
+        for (Team team : teams) {
+            if (player == null) {
+                player = new PlayerAccumulator(team.getUsers().stream().filter(x -> x.getEpicId().equals(epicId)).findFirst().orElseThrow());
+            }
+            player.add(team);
+        }
+        if (player == null) {
+            throw new IllegalArgumentException(String.format("Player %s has no teams", epicId));
+        }
+        return player.build();
+    }
+
+    /**
+     * Returns a copy of an individual entry built by this class, to be given a new placement without changing the
+     * entry already published. Users, games and corrections are never modified once the entry is built, so they are
+     * shared.
+     */
+    public static Team copyOf(Team player) {
+        Team copy = new Team();
+        copy.setUsers(player.getUsers());
+        copy.setGameList(player.getGameList());
+        copy.setCorrections(player.getCorrections());
+        copy.setKills(player.getKills());
+        copy.setGames(player.getGames());
+        copy.setWins(player.getWins());
+        copy.setSumSecondsSurvived(player.getSumSecondsSurvived());
+        copy.setAveragePlacement(player.getAveragePlacement());
+        copy.setAverageSecondsSurvived(player.getAverageSecondsSurvived());
+        copy.setKpm(player.getKpm());
+        copy.setScore(player.getScore());
+        copy.setPlacementScore(player.getPlacementScore());
+        copy.setEliminationScore(player.getEliminationScore());
+        copy.setCountedGames(player.getCountedGames());
+        copy.setCountedKills(player.getCountedKills());
+        copy.setCountedWins(player.getCountedWins());
+        copy.setPlacement(player.getPlacement());
+        return copy;
+    }
+
+    private static class PlayerAccumulator {
+        private final Team team = new Team();
+        private double sumPlacement;
+
+        PlayerAccumulator(Team.User user) {
+            team.setUsers(new ArrayList<>(List.of(user)));
+            team.setGameList(new ArrayList<>());
+            team.setCorrections(new ArrayList<>());
+        }
+
+        void add(Team source) {
+            // Sum the relevant fields
+            team.setKills(team.getKills() + source.getKills());
+            team.setGames(team.getGames() + source.getGames());
+            team.setWins(team.getWins() + source.getWins());
+            team.setSumSecondsSurvived(team.getSumSecondsSurvived() + source.getSumSecondsSurvived());
+            // Merge gameList and corrections
+            for (Team.Game game : source.getGameList()) {
+                team.getGameList().add(game);
+                sumPlacement += game.getPlacement();
+            }
+            team.getCorrections().addAll(source.getCorrections());
+        }
+
+        Team build() {
+            team.setAveragePlacement(sumPlacement / team.getGameList().size());
+            team.setAverageSecondsSurvived(team.getSumSecondsSurvived() / team.getGames());
+            team.setKpm(team.getKills() / team.getSumSecondsSurvived() * 60);
+            return team;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.calves.fnzs.leaderboard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.cache.SessionLeaderboardCache;
+import org.calves.fnzs.cache.UsernameDictionary;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.client.YuniteClient;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Builds the individual leaderboard of a tournament from Yunite data: fetch, enrich with usernames and match data,
+ * split and merge teams into players, calculate counted stats and rank.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardPipeline {
+
+    private static final Logger LOGGER = LogManager.getLogger(LeaderboardPipeline.class);
+
+    private final YuniteClient client;
+    private final String guildId;
+    private final SessionLeaderboardCache sessionLeaderboards;
+    private final SessionLeaderboardFetcher sessionLeaderboardFetcher;
+    private final UsernameResolver usernameResolver;
+    private final boolean incremental;
+    private final Cache<String, TournamentLeaderboardState> tournamentStates;
+
+    /**
+     * @param incremental whether the state of each tournament is kept between builds, so only what changed is rebuilt
+     * @param stateIdleTtl how long the state of a tournament is kept after its last build
+     * @param maximumStateRows how many teams and players the kept states hold at most, the least used are dropped first
+     */
+    public LeaderboardPipeline(YuniteClient client, String guildId, SessionLeaderboardCache sessionLeaderboards,
+                               SessionLeaderboardFetcher sessionLeaderboardFetcher, UsernameResolver usernameResolver,
+                               boolean incremental, Duration stateIdleTtl, long maximumStateRows) {
+        this.client = client;
+        this.guildId = guildId;
+        this.sessionLeaderboards = sessionLeaderboards;
+        this.sessionLeaderboardFetcher = sessionLeaderboardFetcher;
+        this.usernameResolver = usernameResolver;
+        this.incremental = incremental;
+        this.tournamentStates = Caffeine.newBuilder()
+                .expireAfterAccess(stateIdleTtl)
+                .maximumWeight(maximumStateRows)
+                .weigher((String tournamentId, TournamentLeaderboardState state) -> state.size() + 1)
+                .build();
+    }
+
+    public List<Team> build(Tournament tournament) {
+
+        Instant start = Instant.now();
+
+        LOGGER.info("Retrieving leaderboard from tournament {}", tournament.getId());
+        List<MatchSession> matches = FnzsMetrics.timeStage("fetch", () -> client.getTournamentMatches(guildId, tournament.getId()));
+        List<Team> teams = FnzsMetrics.timeStage("fetch", () -> client.getTournamentLeaderboard(guildId, tournament.getId()));
+        LOGGER.info("Retrieved a total of {} teams", teams.size());
+
+        // Only teams that changed since the last refresh are enriched, split and merged again
+        TournamentLeaderboardState state = incremental
+                ? tournamentStates.get(tournament.getId(), tournamentId -> new TournamentLeaderboardState(tournamentId, this))
+                : new TournamentLeaderboardState(tournament.getId(), this);
+        List<Team> resultingTeams = state.refresh(tournament, matches, teams);
+        if (incremental) {
+            // Weights are only computed when an entry is written, and the state grew or shrank
+            tournamentStates.put(tournament.getId(), state);
+        }
+
+        Instant end = Instant.now();
+        Duration duration = Duration.between(start, end);
+        FnzsMetrics.recordStage("total", duration);
+        FnzsMetrics.leaderboardBuilt(teams.size(), resultingTeams.size());
+        LOGGER.info(duration);
+
+        return resultingTeams;
+    }
+
+    UsernameDictionary getUsernameDictionary() {
+        return usernameResolver.getDictionary();
+    }
+
+    Map<String, String> resolveUsernames(Collection<String> epicIds) {
+        return FnzsMetrics.timeStage("usernames", () -> usernameResolver.resolve(epicIds));
+    }
+
+    void enrichTeams(Tournament tournament, Map<String, MatchSession> sessionsById, List<Team> teams) {
+
+        // First we enrich data with Epic usernames
+        LOGGER.info("Enriching data Epic usernames");
+
+        FnzsMetrics.timeStage("usernames", () -> {
+            Set<String> epicIds = new HashSet<>();
+            for (Team team : teams) {
+                for (Team.User user : team.getUsers()) {
+                    epicIds.add(user.getEpicId());
+                }
+            }
+            Map<String, String> usernames = usernameResolver.resolve(epicIds);
+            for (Team team : teams) {
+                for (Team.User user : team.getUsers()) {
+                    user.setEpicUsername(usernames.get(user.getEpicId()));
+                }
+            }
+        });
+
+        LOGGER.info("Finished enriching data Epic usernames");
+
+        // Then we enrich games data
+        FnzsMetrics.timeStage("matches", () -> enrichTournamentMatches(tournament, sessionsById, teams));
+    }
+
+    public void enrichTournamentMatches(Tournament tournament, Map<String, MatchSession> sessionsById, List<Team> teams) {
+        Set<String> missingLeaderboards = new HashSet<>();
+        for (Team team : teams) {
+            for (Team.Game game : team.getGameList()) {
+                MatchSession session = sessionsById.get(game.getSessionId());
+                if (session == null) {
+                    throw new NoSuchElementException(String.format("Match %s is not part of tournament %s", game.getSessionId(), tournament.getId()));
+                }
+                game.setSession(session);
+                enrichMatchScore(tournament.getPointSystem(), game);
+                if (!sessionLeaderboards.contains(game.getSessionId())) {
+                    missingLeaderboards.add(game.getSessionId());
+                }
+            }
+        }
+
+        sessionLeaderboardFetcher.fetch(tournament.getId(), missingLeaderboards).forEach((sessionId, leaderboard) ->
+                sessionLeaderboards.put(sessionId, leaderboard, sessionsById.get(sessionId).getStatus() == MatchSession.Status.SCORED));
+    }
+
+    private static void enrichMatchScore(Tournament.PointSystem pointSystem, Team.Game game) {
+        if (pointSystem.getKillCap() == 0) {
+            // 0 means no limit
+            pointSystem.setKillCap(Integer.MAX_VALUE);
+        }
+        int initialScore = game.getScore();
+        int validKills = Math.min(game.getKills(), pointSystem.getKillCap());
+        int eliminationScore = validKills * pointSystem.getPointsPerKill();
+        int placementScore = pointSystem.getCompletePointsPerPlacement().get(game.getPlacement());
+        game.setEliminationScore(eliminationScore);
+        game.setPlacementScore(placementScore);
+        game.setScore(eliminationScore + placementScore);
+        if (initialScore != game.getScore()) {
+            LOGGER.error("Calculated score has a difference of {} compared to score from Yunite", game.getScore() - initialScore);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable, ranked individual leaderboard of a tournament, shared by every viewer.
+ * <p>
+ * The order of the entries by each sortable column is computed once when the snapshot is created, so paging through
+ * the leaderboard in any order only walks a precomputed index array and never sorts or copies the entries.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardSnapshot {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final Tournament tournament;
+    private final List<Team> teams;
+    private final Instant computedAt;
+    private final long version;
+    private final String[] epicIds;
+    private final String[] searchNames;
+    // Displayed values of each row, to find the rows that changed since another snapshot of the tournament
+    private final long[] rowSignatures;
+    private final Map<Column, int[]> orders = new EnumMap<>(Column.class);
+    private final Map<String, Integer> teamsPerSession = new HashMap<>();
+    private final Map<String, List<GameSummary>> gameSummaries = new ConcurrentHashMap<>();
+
+    /**
+     * @param teamsInMatch returns the number of teams in the leaderboard of a match, read once per match
+     */
+    public LeaderboardSnapshot(Tournament tournament, List<Team> rankedTeams, ToIntFunction<String> teamsInMatch) {
+        this(tournament, rankedTeams, teamsInMatch, Instant.now());
+    }
+
+    /**
+     * @param computedAt when the entries were computed, for snapshots restored from disk
+     */
+    public LeaderboardSnapshot(Tournament tournament, List<Team> rankedTeams, ToIntFunction<String> teamsInMatch, Instant computedAt) {
+        this.tournament = tournament;
+        this.teams = List.copyOf(rankedTeams);
+        this.computedAt = computedAt;
+        this.version = VERSIONS.incrementAndGet();
+
+        this.epicIds = new String[teams.size()];
+        this.searchNames = new String[teams.size()];
+        this.rowSignatures = new long[teams.size()];
+        for (int i = 0; i < searchNames.length; i++) {
+            Team team = teams.get(i);
+            String username = team.getUsers().getFirst().getEpicUsername();
+            epicIds[i] = team.getUsers().getFirst().getEpicId();
+            searchNames[i] = username == null ? "" : username.toLowerCase(Locale.ROOT);
+            rowSignatures[i] = signature(team);
+        }
+        for (Column column : Column.values()) {
+            orders.put(column, sortedIndexes(column.comparator));
+        }
+        for (Team team : teams) {
+            for (Team.Game game : team.getGameList()) {
+                teamsPerSession.computeIfAbsent(game.getSessionId(), teamsInMatch::applyAsInt);
+            }
+        }
+    }
+
+    /**
+     * Returns this snapshot if it already holds exactly the given entries of the same tournament, or a new snapshot
+     * otherwise. Entries are never modified once ranked, so the same entries in the same order are the same
+     * leaderboard: its version, and the ETags and live updates derived from it, stay the same.
+     */
+    public LeaderboardSnapshot withTeams(Tournament tournament, List<Team> rankedTeams, ToIntFunction<String> teamsInMatch) {
+        if (hasEntries(rankedTeams) && Objects.equals(this.tournament.getName(), tournament.getName())) {
+            return this;
+        }
+        return new LeaderboardSnapshot(tournament, rankedTeams, teamsInMatch);
+    }
+
+    private boolean hasEntries(List<Team> rankedTeams) {
+        if (rankedTeams.size() != teams.size()) {
+            return false;
+        }
+        for (int i = 0; i < teams.size(); i++) {
+            if (teams.get(i) != rankedTeams.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Tournament getTournament() {
+        return tournament;
+    }
+
+    /**
+     * Entries in ranking order. The list is immutable.
+     */
+    public List<Team> getTeams() {
+        return teams;
+    }
+
+    public Instant getComputedAt() {
+        return computedAt;
+    }
+
+    /**
+     * Increases with every new snapshot, of any tournament.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return teams.size();
+    }
+
+    /**
+     * Number of teams in each match of the leaderboard, -1 when unknown. The map is immutable.
+     */
+    public Map<String, Integer> getTeamsPerSession() {
+        return Collections.unmodifiableMap(teamsPerSession);
+    }
+
+    /**
+     * Returns a page of entries sorted by the given column, optionally keeping only players whose name contains the
+     * filter (case insensitive).
+     */
+    public List<Team> fetch(Column column, boolean descending, String filter, int offset, int limit) {
+        int[] order = orders.get(column);
+        String needle = normalize(filter);
+        List<Team> page = new ArrayList<>(Math.max(0, Math.min(limit, order.length - offset)));
+        int skipped = 0;
+        for (int i = 0; i < order.length && page.size() < limit; i++) {
+            int index = order[descending ? order.length - 1 - i : i];
+            if (needle != null && !searchNames[index].contains(needle)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(teams.get(index));
+        }
+        return page;
+    }
+
+    public int count(String filter) {
+        String needle = normalize(filter);
+        if (needle == null) {
+            return teams.size();
+        }
+        int count = 0;
+        for (String name : searchNames) {
+            if (name.contains(needle)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the games of a player. Summaries are built the first time a player's games are requested and then
+     * shared by every viewer.
+     */
+    public List<GameSummary> getGameSummaries(Team team) {
+        return gameSummaries.computeIfAbsent(team.getUsers().getFirst().getEpicId(), epicId -> {
+            // Games are shared between teammates, which games count for this player is worked out again here
+            boolean[] counts = CountedStatsEngine.countedGames(tournament, team);
+            List<Team.Game> games = team.getGameList();
+            List<GameSummary> summaries = new ArrayList<>(games.size());
+            for (int i = 0; i < games.size(); i++) {
+                Team.Game game = games.get(i);
+                summaries.add(new GameSummary(game.getSessionId(), game.getTimestamp(), game.getScore(), counts[i],
+                        game.getKills(), game.getPlacement(), teamsPerSession.getOrDefault(game.getSessionId(), -1)));
+            }
+            return List.copyOf(summaries);
+        });
+    }
+
+    /**
+     * Whether the entries are in the same order as in the previous snapshot for every sortable column, which means
+     * viewers only need the changed rows and not a new page.
+     */
+    public boolean hasSameOrderAs(LeaderboardSnapshot previous) {
+        if (previous == null || previous.teams.size() != teams.size()) {
+            return false;
+        }
+        for (Column column : Column.values()) {
+            int[] order = orders.get(column);
+            int[] previousOrder = previous.orders.get(column);
+            for (int i = 0; i < order.length; i++) {
+                if (!epicIds[order[i]].equals(previous.epicIds[previousOrder[i]])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entries whose displayed values differ from the same player's entry in the previous snapshot.
+     * Players that were not in the previous snapshot are included.
+     */
+    public List<Team> getChangedSince(LeaderboardSnapshot previous) {
+        if (previous == null) {
+            return teams;
+        }
+        Map<String, Long> previousSignatures = new HashMap<>(previous.epicIds.length * 2);
+        for (int i = 0; i < previous.epicIds.length; i++) {
+            previousSignatures.put(previous.epicIds[i], previous.rowSignatures[i]);
+        }
+        List<Team> changed = new ArrayList<>();
+        for (int i = 0; i < epicIds.length; i++) {
+            Long previousSignature = previousSignatures.get(epicIds[i]);
+            if (previousSignature == null || previousSignature != rowSignatures[i]) {
+                changed.add(teams.get(i));
+            }
+        }
+        return changed;
+    }
+
+    private static long signature(Team team) {
+        long signature = team.getPlacement();
+        signature = 31 * signature + team.getScore();
+        signature = 31 * signature + team.getGames();
+        signature = 31 * signature + team.getKills();
+        signature = 31 * signature + team.getWins();
+        signature = 31 * signature + team.getCountedGames();
+        signature = 31 * signature + team.getCountedKills();
+        signature = 31 * signature + team.getCountedWins();
+        signature = 31 * signature + Double.doubleToLongBits(team.getAveragePlacement());
+        signature = 31 * signature + Double.doubleToLongBits(team.getAverageSecondsSurvived());
+        signature = 31 * signature + Objects.hashCode(team.getUsers().getFirst().getEpicUsername());
+        return signature;
+    }
+
+    private int[] sortedIndexes(Comparator<Team> comparator) {
+        // Stable, so entries that are equal on the column stay in ranking order
+        return IntStream.range(0, teams.size())
+                .boxed()
+                .sorted((a, b) -> comparator.compare(teams.get(a), teams.get(b)))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static String normalize(String filter) {
+        return filter == null || filter.isBlank() ? null : filter.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Columns the leaderboard can be sorted by, in ascending order.
+     */
+    public enum Column {
+        RANK(Comparator.comparingInt(Team::getPlacement)),
+        PLAYER(Comparator.comparing((Team team) -> team.getUsers().getFirst().getEpicUsername(),
+                Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))),
+        SCORE(Comparator.comparingInt(Team::getScore)),
+        GAMES(Comparator.comparingInt(Team::getGames)),
+        ELIMINATIONS(Comparator.comparingInt(Team::getKills)),
+        WINS(Comparator.comparingInt(Team::getWins)),
+        AVERAGE_PLACEMENT(Comparator.comparingDouble(Team::getAveragePlacement)),
+        AVERAGE_SURVIVAL(Comparator.comparingDouble(Team::getAverageSecondsSurvived));
+
+        private final Comparator<Team> comparator;
+
+        Column(Comparator<Team> comparator) {
+            this.comparator = comparator;
+        }
+    }
+}
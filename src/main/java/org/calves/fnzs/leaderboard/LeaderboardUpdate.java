@@ -0,0 +1,16 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.Team;
+
+import java.util.List;
+
+/**
+ * A new leaderboard snapshot pushed to live viewers.
+ *
+ * @param changedTeams entries whose values changed since the previous snapshot
+ * @param reordered    whether entries were added, removed or moved, in which case viewers must reload the whole page
+ *                     instead of only the changed rows
+ * @author carlos.pedroalves
+ */
+public record LeaderboardUpdate(LeaderboardSnapshot snapshot, List<Team> changedTeams, boolean reordered) {
+}
@@ -0,0 +1,161 @@
+package org.calves.fnzs.leaderboard;
+
+import com.vaadin.flow.shared.Registration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps the leaderboards that are being watched up to date and pushes every new snapshot to their viewers.
+ * <p>
+ * There is one refresher per watched tournament, no matter how many viewers it has, and it stops with the last
+ * viewer. Each new snapshot is compared once against the previous one, and every viewer gets the same
+ * {@link LeaderboardUpdate} with only the rows that changed.
+ *
+ * @author carlos.pedroalves
+ */
+public class LiveLeaderboardHub {
+
+    private static final Logger LOGGER = LogManager.getLogger(LiveLeaderboardHub.class);
+
+    private final Function<Tournament, CompletableFuture<LeaderboardSnapshot>> refresher;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * @param refresher computes a new snapshot of a tournament, concurrent refreshes of the same tournament are
+     *                  expected to be shared
+     * @param interval  time between refreshes of each watched tournament
+     * @param name      name of the thread scheduling the refreshes
+     */
+    public LiveLeaderboardHub(Function<Tournament, CompletableFuture<LeaderboardSnapshot>> refresher, Duration interval, String name) {
+        this.refresher = refresher;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOGGER.info("Live leaderboards refreshed every {}", interval);
+    }
+
+    /**
+     * Subscribes to the new snapshots of a tournament. Updates are delivered on a background thread.
+     *
+     * @param current the snapshot the subscriber is showing, used to catch it up if a newer one was already pushed
+     */
+    public Registration subscribe(Tournament tournament, LeaderboardSnapshot current, Consumer<LeaderboardUpdate> listener) {
+        Channel channel = channels.compute(tournament.getId(), (tournamentId, existing) -> {
+            if (existing == null) {
+                existing = new Channel(tournament);
+                existing.latest = current;
+            }
+            existing.tournament = tournament;
+            existing.listeners.add(listener);
+            return existing;
+        });
+        LeaderboardSnapshot latest = channel.latest;
+        if (latest != null && current != null && latest.getVersion() > current.getVersion()) {
+            deliver(listener, new LeaderboardUpdate(latest, latest.getTeams(), true));
+        }
+        return () -> unsubscribe(tournament.getId(), listener);
+    }
+
+    public void registerMetrics(MeterRegistry registry, Iterable<Tag> tags) {
+        Gauge.builder("fnzs.live.tournaments", channels, Map::size)
+                .description("Tournaments with live viewers")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("fnzs.live.subscribers", channels, map -> map.values().stream().mapToInt(channel -> channel.listeners.size()).sum())
+                .description("Views subscribed to live leaderboard updates")
+                .tags(tags)
+                .register(registry);
+    }
+
+    private void unsubscribe(String tournamentId, Consumer<LeaderboardUpdate> listener) {
+        channels.computeIfPresent(tournamentId, (id, channel) -> {
+            channel.listeners.remove(listener);
+            if (channel.listeners.isEmpty()) {
+                channel.task.cancel(false);
+                LOGGER.info("Stopped live leaderboard of tournament {}", tournamentId);
+                return null;
+            }
+            return channel;
+        });
+    }
+
+    private static void deliver(Consumer<LeaderboardUpdate> listener, LeaderboardUpdate update) {
+        try {
+            listener.accept(update);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed to deliver leaderboard update", ex);
+        }
+    }
+
+    private class Channel {
+
+        private final Set<Consumer<LeaderboardUpdate>> listeners = new CopyOnWriteArraySet<>();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final ScheduledFuture<?> task;
+        private volatile Tournament tournament;
+        private volatile LeaderboardSnapshot latest;
+
+        private Channel(Tournament tournament) {
+            this.tournament = tournament;
+            this.task = scheduler.scheduleWithFixedDelay(this::refresh, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+            LOGGER.info("Started live leaderboard of tournament {}", tournament.getId());
+        }
+
+        private void refresh() {
+            // A slow build is not stacked with more refreshes of the same tournament
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            refresher.apply(tournament).whenComplete((snapshot, ex) -> {
+                refreshing.set(false);
+                if (ex != null) {
+                    LOGGER.error("Failed to refresh live leaderboard of tournament {}", tournament.getId(), ex);
+                } else {
+                    publish(snapshot);
+                }
+            });
+        }
+
+        private void publish(LeaderboardSnapshot snapshot) {
+            LeaderboardUpdate update;
+            synchronized (this) {
+                LeaderboardSnapshot previous = latest;
+                if (previous != null && snapshot.getVersion() <= previous.getVersion()) {
+                    return;
+                }
+                latest = snapshot;
+                if (previous == null) {
+                    update = new LeaderboardUpdate(snapshot, snapshot.getTeams(), true);
+                } else {
+                    update = new LeaderboardUpdate(snapshot, snapshot.getChangedSince(previous), !snapshot.hasSameOrderAs(previous));
+                }
+            }
+            LOGGER.debug("Pushing {} changed rows of tournament {} to {} viewers", update.changedTeams().size(),
+                    tournament.getId(), listeners.size());
+            listeners.forEach(listener -> deliver(listener, update));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ranks teams by score and the tournament tiebreakers.
+ * <p>
+ * The sort key of every team (score followed by each tiebreaker, in the tournament order) is computed once into a
+ * primitive array, oriented so that lower is always better. Sorting and assigning shared placements then only compare
+ * those arrays instead of re-evaluating getters and averages on every comparison.
+ *
+ * @author carlos.pedroalves
+ */
+public class RankingEngine {
+
+    private RankingEngine() {
+    }
+
+    /**
+     * Sorts the teams in place and sets their placement. Teams that are tied on every key share the same placement.
+     */
+    public static void sortAndSetPlacement(List<Tournament.TieBreaker> tieBreakers, List<Team> teams) {
+        int[] placements = sort(tieBreakers, teams);
+        for (int i = 0; i < placements.length; i++) {
+            teams.get(i).setPlacement(placements[i]);
+        }
+    }
+
+    /**
+     * Sorts the teams in place and returns the placement of each position, without setting it on the teams.
+     */
+    public static int[] sort(List<Tournament.TieBreaker> tieBreakers, List<Team> teams) {
+        RankedTeam[] ranked = rank(tieBreakers, teams);
+        Arrays.sort(ranked);
+        for (int i = 0; i < ranked.length; i++) {
+            teams.set(i, ranked[i].team);
+        }
+        return placements(ranked);
+    }
+
+    /**
+     * Returns only the best {@code limit} teams in ranking order, with the placement of each, without sorting the whole
+     * list. Neither the list nor its teams are modified, so it can rank entries already shared with other readers.
+     */
+    public static List<Placement> topK(List<Tournament.TieBreaker> tieBreakers, List<Team> teams, int limit) {
+        if (limit <= 0 || teams.isEmpty()) {
+            return List.of();
+        }
+
+        RankedTeam[] ranked;
+        if (limit >= teams.size()) {
+            ranked = rank(tieBreakers, teams);
+        } else {
+            // Max-heap holding the best teams seen so far, the root is the worst of them
+            PriorityQueue<RankedTeam> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+            for (RankedTeam team : rank(tieBreakers, teams)) {
+                best.add(team);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            ranked = best.toArray(new RankedTeam[0]);
+        }
+        Arrays.sort(ranked);
+        int[] placements = placements(ranked);
+        List<Placement> result = new ArrayList<>(ranked.length);
+        for (int i = 0; i < ranked.length; i++) {
+            result.add(new Placement(ranked[i].team, placements[i]));
+        }
+        return result;
+    }
+
+    private static RankedTeam[] rank(List<Tournament.TieBreaker> tieBreakers, List<Team> teams) {
+        Tournament.TieBreaker[] order = tieBreakers.toArray(new Tournament.TieBreaker[0]);
+        RankedTeam[] ranked = new RankedTeam[teams.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = new RankedTeam(teams.get(i), i, sortKeys(order, teams.get(i)));
+        }
+        return ranked;
+    }
+
+    private static double[] sortKeys(Tournament.TieBreaker[] tieBreakers, Team team) {
+        double[] keys = new double[tieBreakers.length + 1];
+        int games = team.getGameList().size();
+        keys[0] = -team.getScore(); // Primary sort by score (descending)
+        for (int i = 0; i < tieBreakers.length; i++) {
+            keys[i + 1] = switch (tieBreakers[i]) {
+                case WINS -> -team.getWins(); // Higher wins first
+                case AVERAGE_ELIMINATIONS -> -((double) team.getKills() / games); // Higher average eliminations first
+                case SUM_ELIMINATIONS -> -team.getKills(); // Higher sum eliminations first
+                case AVERAGE_PLACEMENT -> team.getAveragePlacement(); // Lower average placement first
+                case SCORE_PER_MATCH -> -((double) team.getScore() / games); // Higher score per match first
+                case SUM_TIME_SURVIVED -> -team.getSumSecondsSurvived(); // Higher sum time survived first
+                case AVERAGE_TIME_SURVIVED -> -team.getAverageSecondsSurvived(); // Higher average time survived first
+            };
+        }
+        return keys;
+    }
+
+    private static int[] placements(RankedTeam[] ranked) {
+        int[] placements = new int[ranked.length];
+        for (int i = 0; i < ranked.length; i++) {
+            placements[i] = i == 0 || !ranked[i].tiedWith(ranked[i - 1]) ? i + 1 : placements[i - 1];
+        }
+        return placements;
+    }
+
+    /**
+     * A team and the placement it ranks at, which is not set on the team.
+     */
+    public record Placement(Team team, int placement) {
+    }
+
+    private static class RankedTeam implements Comparable<RankedTeam> {
+        private final Team team;
+        private final int index;
+        private final double[] keys;
+
+        RankedTeam(Team team, int index, double[] keys) {
+            this.team = team;
+            this.index = index;
+            this.keys = keys;
+        }
+
+        boolean tiedWith(RankedTeam other) {
+            return compareKeys(other) == 0;
+        }
+
+        @Override
+        public int compareTo(RankedTeam other) {
+            int result = compareKeys(other);
+            // Ties keep the original order so top-K and full rankings agree
+            return result != 0 ? result : Integer.compare(index, other.index);
+        }
+
+        private int compareKeys(RankedTeam other) {
+            for (int i = 0; i < keys.length; i++) {
+                int result = Double.compare(keys[i], other.keys[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.calves.fnzs.leaderboard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Combines the individual leaderboards of several tournaments into a season leaderboard.
+ * <p>
+ * The leaderboards are requested all at once, so the tournaments are fetched and scored concurrently through the same
+ * leaderboard, match and username caches as single tournaments. Each tournament is scored with its own point system
+ * and counted games rules, and a player's season score is the sum of their tournament scores. Players are ranked by
+ * score, then wins, kills and best placement; players tied on all of them share a placement, like in a tournament, and
+ * are listed by username.
+ * <p>
+ * Each season keeps the contribution of every tournament to the players' totals, so when a new snapshot of one
+ * tournament comes in only that tournament's contribution is replaced. Season states are bounded by the rows they
+ * hold, so requesting many different combinations of tournaments only evicts the least used ones.
+ *
+ * @author carlos.pedroalves
+ */
+public class SeasonAggregator {
+
+    private static final Logger LOGGER = LogManager.getLogger(SeasonAggregator.class);
+    private static final Comparator<Totals> RANKING = Comparator.comparingInt((Totals totals) -> totals.score).reversed()
+            .thenComparing(Comparator.comparingInt((Totals totals) -> totals.wins).reversed())
+            .thenComparing(Comparator.comparingInt((Totals totals) -> totals.kills).reversed())
+            .thenComparingInt(Totals::bestPlacement);
+    // Only orders players sharing a placement, so ties are always listed the same way
+    private static final Comparator<Totals> DISPLAY_ORDER = RANKING
+            .thenComparing(totals -> totals.username, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+
+    private final Function<Tournament, CompletableFuture<LeaderboardSnapshot>> leaderboards;
+    private final Cache<List<String>, SeasonState> seasons;
+
+    /**
+     * @param leaderboards returns the leaderboard of a tournament without blocking
+     * @param seasonIdleTtl how long the state of a season is kept after it was last requested
+     * @param maximumRows how many rows the season states hold at most, the least used are dropped first
+     */
+    public SeasonAggregator(Function<Tournament, CompletableFuture<LeaderboardSnapshot>> leaderboards, Duration seasonIdleTtl,
+                            long maximumRows) {
+        this.leaderboards = leaderboards;
+        this.seasons = Caffeine.newBuilder()
+                .expireAfterAccess(seasonIdleTtl)
+                .maximumWeight(maximumRows)
+                .weigher((List<String> seasonKey, SeasonState state) -> state.rows + 1)
+                .build();
+    }
+
+    public CompletableFuture<SeasonLeaderboard> aggregate(List<Tournament> tournaments) {
+        List<CompletableFuture<LeaderboardSnapshot>> snapshots = tournaments.stream().map(leaderboards).toList();
+        return CompletableFuture.allOf(snapshots.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<String> seasonKey = tournaments.stream().map(Tournament::getId).sorted().toList();
+                    SeasonState state = seasons.get(seasonKey, key -> new SeasonState());
+                    SeasonLeaderboard season = FnzsMetrics.timeStage("season",
+                            () -> state.update(tournaments, snapshots.stream().map(CompletableFuture::join).toList()));
+                    // Weights are only computed when an entry is written, and the state grew or shrank
+                    seasons.put(seasonKey, state);
+                    return season;
+                });
+    }
+
+    private static class SeasonState {
+
+        private final Map<String, Contribution> contributions = new HashMap<>();
+        private final Map<String, Totals> totals = new HashMap<>();
+        private SeasonLeaderboard last;
+        // Contribution rows, totals and entries kept, read without the lock to weigh the state
+        private volatile int rows;
+
+        private synchronized SeasonLeaderboard update(List<Tournament> tournaments, List<LeaderboardSnapshot> snapshots) {
+            boolean changed = last == null;
+            for (LeaderboardSnapshot snapshot : snapshots) {
+                String tournamentId = snapshot.getTournament().getId();
+                Contribution previous = contributions.get(tournamentId);
+                if (previous != null && previous.version == snapshot.getVersion()) {
+                    continue;
+                }
+                if (previous != null) {
+                    previous.removeFrom(totals);
+                }
+                Contribution contribution = Contribution.of(snapshot);
+                contribution.addTo(totals);
+                contributions.put(tournamentId, contribution);
+                changed = true;
+                LOGGER.debug("Season contribution of tournament {} updated", tournamentId);
+            }
+            if (!changed) {
+                return last;
+            }
+
+            List<Totals> ranked = new ArrayList<>();
+            for (Totals player : totals.values()) {
+                if (player.tournaments > 0) {
+                    ranked.add(player);
+                }
+            }
+            ranked.sort(DISPLAY_ORDER);
+            List<SeasonEntry> entries = new ArrayList<>(ranked.size());
+            int placement = 0;
+            for (int i = 0; i < ranked.size(); i++) {
+                Totals player = ranked.get(i);
+                if (i == 0 || RANKING.compare(ranked.get(i - 1), player) != 0) {
+                    placement = i + 1;
+                }
+                entries.add(new SeasonEntry(placement, player.epicId, player.username, player.score, player.tournaments,
+                        player.games, player.kills, player.wins, player.bestPlacement()));
+            }
+            last = new SeasonLeaderboard(List.copyOf(tournaments), List.copyOf(entries), Instant.now());
+            rows = contributions.values().stream().mapToInt(contribution -> contribution.epicIds.length).sum()
+                    + totals.size() + entries.size();
+            return last;
+        }
+    }
+
+    /**
+     * Counted results of every player in one tournament snapshot, as primitive columns.
+     */
+    private record Contribution(long version, String[] epicIds, String[] usernames, int[] scores, int[] games, int[] kills,
+                                int[] wins, int[] placements) {
+
+        private static Contribution of(LeaderboardSnapshot snapshot) {
+            List<Team> teams = snapshot.getTeams();
+            int size = teams.size();
+            Contribution contribution = new Contribution(snapshot.getVersion(), new String[size], new String[size], new int[size],
+                    new int[size], new int[size], new int[size], new int[size]);
+            for (int i = 0; i < size; i++) {
+                Team team = teams.get(i);
+                Team.User user = team.getUsers().getFirst();
+                contribution.epicIds[i] = user.getEpicId();
+                contribution.usernames[i] = user.getEpicUsername();
+                contribution.scores[i] = team.getScore();
+                contribution.games[i] = team.getCountedGames();
+                contribution.kills[i] = team.getCountedKills();
+                contribution.wins[i] = team.getCountedWins();
+                contribution.placements[i] = team.getPlacement();
+            }
+            return contribution;
+        }
+
+        private void addTo(Map<String, Totals> totals) {
+            for (int i = 0; i < epicIds.length; i++) {
+                Totals player = totals.computeIfAbsent(epicIds[i], Totals::new);
+                if (usernames[i] != null) {
+                    player.username = usernames[i];
+                }
+                player.score += scores[i];
+                player.games += games[i];
+                player.kills += kills[i];
+                player.wins += wins[i];
+                player.tournaments++;
+                player.placements.merge(placements[i], 1, Integer::sum);
+            }
+        }
+
+        private void removeFrom(Map<String, Totals> totals) {
+            for (int i = 0; i < epicIds.length; i++) {
+                Totals player = totals.get(epicIds[i]);
+                player.score -= scores[i];
+                player.games -= games[i];
+                player.kills -= kills[i];
+                player.wins -= wins[i];
+                player.tournaments--;
+                player.placements.computeIfPresent(placements[i], (placement, count) -> count == 1 ? null : count - 1);
+                if (player.tournaments == 0) {
+                    totals.remove(epicIds[i]);
+                }
+            }
+        }
+    }
+
+    private static class Totals {
+
+        private final String epicId;
+        private String username;
+        private int score;
+        private int games;
+        private int kills;
+        private int wins;
+        private int tournaments;
+        // Placement -> number of tournaments finished there, so the best one survives a tournament being replaced
+        private final TreeMap<Integer, Integer> placements = new TreeMap<>();
+
+        private Totals(String epicId) {
+            this.epicId = epicId;
+        }
+
+        private int bestPlacement() {
+            return placements.isEmpty() ? Integer.MAX_VALUE : placements.firstKey();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.calves.fnzs.leaderboard;
+
+/**
+ * A player's results across the tournaments of a season. Every value only includes the games counted by each
+ * tournament's own rules.
+ *
+ * @param bestPlacement best final placement in a single tournament
+ * @author carlos.pedroalves
+ */
+public record SeasonEntry(int placement, String epicId, String username, int score, int tournaments, int games,
+                          int kills, int wins, int bestPlacement) {
+}
@@ -0,0 +1,14 @@
+package org.calves.fnzs.leaderboard;
+
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Ranked season leaderboard over a set of tournaments. Both lists are immutable.
+ *
+ * @author carlos.pedroalves
+ */
+public record SeasonLeaderboard(List<Tournament> tournaments, List<SeasonEntry> entries, Instant computedAt) {
+}
@@ -0,0 +1,95 @@
+package org.calves.fnzs.leaderboard;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.client.YuniteClient;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches match leaderboards from Yunite concurrently on virtual threads.
+ * <p>
+ * The number of in-flight requests is bounded so a cold tournament does not flood Yunite, on top of the rate limit and
+ * timeouts of the {@link YuniteClient}. A fetch waits for its match leaderboards up to its own timeout as well, so a
+ * build never hangs on a fetch that cannot be scheduled. Sessions that fail or time out are left out of the result and
+ * will be retried on the next load.
+ *
+ * @author carlos.pedroalves
+ */
+public class SessionLeaderboardFetcher {
+
+    private static final Logger LOGGER = LogManager.getLogger(SessionLeaderboardFetcher.class);
+
+    private final YuniteClient client;
+    private final String guildId;
+    private final Semaphore permits;
+    private final Duration timeout;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param timeout how long a fetch waits for all its match leaderboards
+     */
+    public SessionLeaderboardFetcher(YuniteClient client, String guildId, int maxConcurrency, Duration timeout) {
+        this.client = client;
+        this.guildId = guildId;
+        this.permits = new Semaphore(maxConcurrency);
+        this.timeout = timeout;
+    }
+
+    public Map<String, List<SessionLeaderboard>> fetch(String tournamentId, Collection<String> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return Map.of();
+        }
+        LOGGER.info("Fetching {} match leaderboards for tournament {}", sessionIds.size(), tournamentId);
+
+        Map<String, Future<List<SessionLeaderboard>>> calls = new LinkedHashMap<>();
+        for (String sessionId : sessionIds) {
+            calls.put(sessionId, executor.submit(() -> fetchOne(tournamentId, sessionId)));
+        }
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Map<String, List<SessionLeaderboard>> leaderboards = new HashMap<>(calls.size() * 2);
+        for (Map.Entry<String, Future<List<SessionLeaderboard>>> call : calls.entrySet()) {
+            try {
+                leaderboards.put(call.getKey(), call.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                FnzsMetrics.sessionLeaderboardFetched("fetched");
+            } catch (ExecutionException ex) {
+                FnzsMetrics.sessionLeaderboardFetched("failed");
+                LOGGER.error("Could not fetch leaderboard for match {}", call.getKey(), ex.getCause());
+            } catch (TimeoutException ex) {
+                call.getValue().cancel(true);
+                FnzsMetrics.sessionLeaderboardFetched("timed_out");
+                LOGGER.error("Timed out after {} fetching leaderboard for match {}", timeout, call.getKey());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                calls.values().forEach(future -> future.cancel(true));
+                break;
+            }
+        }
+        LOGGER.info("Fetched {} of {} match leaderboards for tournament {}", leaderboards.size(), sessionIds.size(), tournamentId);
+        return leaderboards;
+    }
+
+    private List<SessionLeaderboard> fetchOne(String tournamentId, String sessionId) throws InterruptedException {
+        permits.acquire();
+        try {
+            return client.getMatchLeaderboard(guildId, tournamentId, sessionId);
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package org.calves.fnzs.leaderboard;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.cache.UsernameDictionary;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.metrics.FnzsMetrics;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Per-player aggregate state of a tournament, kept between leaderboard refreshes.
+ * <p>
+ * Each refresh compares the latest Yunite teams and sessions with the previous ones and only enriches the teams that
+ * changed (new games, corrections or sessions changing status). Only the players of those teams are merged and have
+ * their counted games re-evaluated again; everyone else keeps the entry computed on a previous refresh. Players still
+ * shown without a username, or every player once a new username dictionary is loaded, are looked up again and rebuilt
+ * if their name changed.
+ * <p>
+ * Entries are shared with the snapshots already published, so they are never modified once ranked: a kept entry whose
+ * placement changes is replaced by a copy with the new placement.
+ * <p>
+ * Refreshes wait for Yunite and username lookups, so they are serialized with a lock rather than a monitor: a virtual
+ * thread blocking inside {@code synchronized} pins its carrier, and enough concurrent builds would leave no carrier to
+ * run the fetches they wait for.
+ *
+ * @author carlos.pedroalves
+ */
+class TournamentLeaderboardState {
+
+    private static final Logger LOGGER = LogManager.getLogger(TournamentLeaderboardState.class);
+
+    private final String tournamentId;
+    private final LeaderboardPipeline pipeline;
+    private int rulesFingerprint;
+    private final Map<String, MatchSession.Status> sessionStatuses = new HashMap<>();
+    private final Map<String, TeamEntry> teams = new HashMap<>();
+    private final Map<String, Set<String>> teamKeysByPlayer = new HashMap<>();
+    private final Map<String, Team> players = new LinkedHashMap<>();
+    private List<Team> ranking = List.of();
+    // Dictionary the usernames of the players were last resolved with
+    private UsernameDictionary usernameDictionary;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Teams and players kept, read without the lock to weigh the state
+    private volatile int size;
+
+    TournamentLeaderboardState(String tournamentId, LeaderboardPipeline pipeline) {
+        this.tournamentId = tournamentId;
+        this.pipeline = pipeline;
+    }
+
+    List<Team> refresh(Tournament tournament, List<MatchSession> matches, List<Team> latestTeams) {
+        lock.lock();
+        try {
+            return applyChanges(tournament, matches, latestTeams);
+        } catch (RuntimeException ex) {
+            // A partially applied refresh cannot be trusted, the next one starts from scratch
+            reset();
+            throw ex;
+        } finally {
+            size = teams.size() + players.size();
+            lock.unlock();
+        }
+    }
+
+    private List<Team> applyChanges(Tournament tournament, List<MatchSession> matches, List<Team> latestTeams) {
+
+        int fingerprint = rulesFingerprint(tournament);
+        if (rulesFingerprint != 0 && fingerprint != rulesFingerprint) {
+            // Scoring rules changed, nothing computed so far can be reused
+            LOGGER.info("Scoring rules of tournament {} changed, rebuilding the whole leaderboard", tournamentId);
+            reset();
+        }
+        rulesFingerprint = fingerprint;
+
+        Map<String, MatchSession> sessionsById = new HashMap<>(matches.size() * 2);
+        Set<String> changedSessions = new HashSet<>();
+        for (MatchSession match : matches) {
+            sessionsById.put(match.getSessionId(), match);
+            if (sessionStatuses.put(match.getSessionId(), match.getStatus()) != match.getStatus()) {
+                changedSessions.add(match.getSessionId());
+            }
+        }
+
+        // Find the teams that are new or changed since the last refresh
+        List<Team> dirtyTeams = new ArrayList<>();
+        Set<String> dirtyPlayers = new LinkedHashSet<>();
+        Map<String, Team> latestByKey = new HashMap<>(latestTeams.size() * 2);
+        for (Team team : latestTeams) {
+            String key = teamKey(team);
+            TeamSignature signature = TeamSignature.of(team);
+            latestByKey.put(key, team);
+            TeamEntry previous = teams.get(key);
+            if (previous == null || !previous.signature().equals(signature) || playedIn(team, changedSessions)) {
+                markDirty(key, team, signature, dirtyTeams, dirtyPlayers);
+            }
+        }
+        Set<String> latestKeys = latestByKey.keySet();
+
+        // Teams that are no longer in the leaderboard (e.g. disqualified)
+        Iterator<Map.Entry<String, TeamEntry>> iterator = teams.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, TeamEntry> entry = iterator.next();
+            if (!latestKeys.contains(entry.getKey())) {
+                iterator.remove();
+                for (Team.User user : entry.getValue().team().getUsers()) {
+                    dirtyPlayers.add(user.getEpicId());
+                    teamKeysByPlayer.getOrDefault(user.getEpicId(), Set.of()).remove(entry.getKey());
+                }
+            }
+        }
+
+        // Renamed players are rebuilt from the latest teams, which are fresh objects, so published entries keep their names
+        for (String epicId : findRenamedPlayers(dirtyPlayers)) {
+            for (String key : teamKeysByPlayer.getOrDefault(epicId, Set.of())) {
+                Team team = latestByKey.get(key);
+                if (team != null && teams.get(key).team() != team) {
+                    markDirty(key, team, TeamSignature.of(team), dirtyTeams, dirtyPlayers);
+                }
+            }
+        }
+
+        if (dirtyPlayers.isEmpty()) {
+            LOGGER.info("No changes in tournament {} since last refresh", tournamentId);
+            return ranking;
+        }
+
+        pipeline.enrichTeams(tournament, sessionsById, dirtyTeams);
+
+        // Rebuild only the players that were part of a changed team
+        List<Team> rebuiltPlayers = FnzsMetrics.timeStage("merge", () -> mergePlayers(dirtyPlayers));
+        FnzsMetrics.timeStage("counted_stats", () -> CountedStatsEngine.recalculate(tournament, rebuiltPlayers));
+
+        List<Team> newRanking = new ArrayList<>(players.values());
+        int[] placements = FnzsMetrics.timeStage("ranking", () -> RankingEngine.sort(tournament.getTiebreakers(), newRanking));
+        Set<Team> rebuilt = Collections.newSetFromMap(new IdentityHashMap<>());
+        rebuilt.addAll(rebuiltPlayers);
+        for (int i = 0; i < placements.length; i++) {
+            Team player = newRanking.get(i);
+            if (player.getPlacement() == placements[i]) {
+                continue;
+            }
+            if (!rebuilt.contains(player)) {
+                player = IndividualAggregator.copyOf(player);
+                players.put(player.getUsers().getFirst().getEpicId(), player);
+                newRanking.set(i, player);
+            }
+            player.setPlacement(placements[i]);
+        }
+        ranking = newRanking;
+
+        LOGGER.info("Rebuilt {} of {} players of tournament {} ({} changed teams, {} changed sessions)",
+                rebuiltPlayers.size(), players.size(), tournamentId, dirtyTeams.size(), changedSessions.size());
+        return ranking;
+    }
+
+    private void markDirty(String key, Team team, TeamSignature signature, List<Team> dirtyTeams, Set<String> dirtyPlayers) {
+        teams.put(key, new TeamEntry(team, signature));
+        dirtyTeams.add(team);
+        for (Team.User user : team.getUsers()) {
+            dirtyPlayers.add(user.getEpicId());
+            teamKeysByPlayer.computeIfAbsent(user.getEpicId(), epicId -> new HashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Returns the players, among those not already being rebuilt, whose username resolves to something else than what
+     * their entry shows. Only players shown without a username are checked, unless the dictionary was replaced.
+     */
+    private List<String> findRenamedPlayers(Set<String> dirtyPlayers) {
+        UsernameDictionary dictionary = pipeline.getUsernameDictionary();
+        boolean dictionaryChanged = dictionary != usernameDictionary;
+        usernameDictionary = dictionary;
+
+        Map<String, String> shownNames = new HashMap<>();
+        for (Map.Entry<String, Team> player : players.entrySet()) {
+            String shownName = player.getValue().getUsers().getFirst().getEpicUsername();
+            if (!dirtyPlayers.contains(player.getKey())
+                    && (dictionaryChanged || UsernameResolver.isUnknown(player.getKey(), shownName))) {
+                shownNames.put(player.getKey(), shownName);
+            }
+        }
+        if (shownNames.isEmpty()) {
+            return List.of();
+        }
+        Map<String, String> resolved = pipeline.resolveUsernames(shownNames.keySet());
+        List<String> renamed = new ArrayList<>();
+        shownNames.forEach((epicId, shownName) -> {
+            String username = resolved.get(epicId);
+            if (username != null && !username.equals(shownName)) {
+                renamed.add(epicId);
+            }
+        });
+        if (!renamed.isEmpty()) {
+            LOGGER.info("{} players of tournament {} have a new username", renamed.size(), tournamentId);
+        }
+        return renamed;
+    }
+
+    private List<Team> mergePlayers(Set<String> epicIds) {
+        List<Team> rebuiltPlayers = new ArrayList<>(epicIds.size());
+        for (String epicId : epicIds) {
+            Set<String> keys = teamKeysByPlayer.get(epicId);
+            if (keys == null || keys.isEmpty()) {
+                teamKeysByPlayer.remove(epicId);
+                players.remove(epicId);
+                continue;
+            }
+            List<Team> playerTeams = keys.stream().map(key -> teams.get(key).team()).collect(Collectors.toList());
+            Team player = IndividualAggregator.merge(epicId, playerTeams);
+            players.put(epicId, player);
+            rebuiltPlayers.add(player);
+        }
+        return rebuiltPlayers;
+    }
+
+    /**
+     * Returns how many teams and players are kept.
+     */
+    int size() {
+        return size;
+    }
+
+    private void reset() {
+        rulesFingerprint = 0;
+        sessionStatuses.clear();
+        teams.clear();
+        teamKeysByPlayer.clear();
+        players.clear();
+        ranking = List.of();
+        usernameDictionary = null;
+    }
+
+    private static boolean playedIn(Team team, Set<String> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return false;
+        }
+        for (Team.Game game : team.getGameList()) {
+            if (sessionIds.contains(game.getSessionId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String teamKey(Team team) {
+        return team.getUsers().stream().map(Team.User::getEpicId).sorted().collect(Collectors.joining(","));
+    }
+
+    private static int rulesFingerprint(Tournament tournament) {
+        Tournament.PointSystem pointSystem = tournament.getPointSystem();
+        // A kill cap of 0 is rewritten to Integer.MAX_VALUE when scoring, both mean no limit
+        int killCap = pointSystem.getKillCap() == 0 ? Integer.MAX_VALUE : pointSystem.getKillCap();
+        return Objects.hash(tournament.getMaxGamesScored(), tournament.getConsensusMin(), tournament.getTiebreakers(),
+                killCap, pointSystem.getPointsPerKill(), pointSystem.getCompletePointsPerPlacement());
+    }
+
+    private record TeamEntry(Team team, TeamSignature signature) {
+    }
+
+    /**
+     * Totals Yunite reports for a team, compared value by value to find the teams that changed.
+     */
+    private record TeamSignature(int score, int kills, int wins, int games, double sumSecondsSurvived, int gameCount,
+                                 int correctionCount) {
+
+        private static TeamSignature of(Team team) {
+            return new TeamSignature(team.getScore(), team.getKills(), team.getWins(), team.getGames(),
+                    team.getSumSecondsSurvived(), team.getGameList().size(), team.getCorrections().size());
+        }
+    }
+}
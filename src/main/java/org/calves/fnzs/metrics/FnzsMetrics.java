@@ -0,0 +1,121 @@
+package org.calves.fnzs.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Meters shared by the leaderboard pipeline and the Yunite calls.
+ * <p>
+ * Meters are registered in the Micrometer global registry, which Spring Boot Actuator links to its Prometheus
+ * registry, so they are available at {@code /actuator/prometheus} without the controllers being Spring beans.
+ *
+ * @author carlos.pedroalves
+ */
+public class FnzsMetrics {
+
+    public static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+
+    private FnzsMetrics() {
+    }
+
+    /**
+     * Times one stage of a leaderboard build (fetch, usernames, matches, merge, counted_stats, ranking, total).
+     */
+    public static <T> T timeStage(String stage, Supplier<T> supplier) {
+        return stageTimer(stage).record(supplier);
+    }
+
+    public static void timeStage(String stage, Runnable runnable) {
+        stageTimer(stage).record(runnable);
+    }
+
+    public static void recordStage(String stage, Duration duration) {
+        stageTimer(stage).record(duration);
+    }
+
+    /**
+     * Times a call to Yunite and counts it as an error if it throws.
+     */
+    public static <T> T yuniteCall(String endpoint, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(REGISTRY);
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException ex) {
+            outcome = "error";
+            Counter.builder("fnzs.yunite.errors")
+                    .description("Failed Yunite API calls")
+                    .tag("endpoint", endpoint)
+                    .tag("exception", ex.getClass().getSimpleName())
+                    .register(REGISTRY)
+                    .increment();
+            throw ex;
+        } finally {
+            sample.stop(Timer.builder("fnzs.yunite.requests")
+                    .description("Latency of Yunite API calls")
+                    .tag("endpoint", endpoint)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(REGISTRY));
+        }
+    }
+
+    /**
+     * @param action retry, coalesced (joined an identical call in flight) or stale (served the last response)
+     */
+    public static void yuniteResilience(String action, String endpoint) {
+        Counter.builder("fnzs.yunite.resilience")
+                .description("Yunite calls retried, coalesced or answered with stale data")
+                .tag("action", action)
+                .tag("endpoint", endpoint)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    /**
+     * @param outcome fetched or failed
+     */
+    public static void sessionLeaderboardFetched(String outcome) {
+        Counter.builder("fnzs.session.leaderboards.fetches")
+                .description("Match leaderboards fetched from Yunite")
+                .tag("outcome", outcome)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    /**
+     * @param result resolved or unknown
+     */
+    public static void usernamesLookedUp(String result, int count) {
+        Counter.builder("fnzs.usernames.lookups")
+                .description("Usernames that were not cached and had to be looked up")
+                .tag("result", result)
+                .register(REGISTRY)
+                .increment(count);
+    }
+
+    public static void leaderboardBuilt(int teams, int players) {
+        DistributionSummary.builder("fnzs.leaderboard.teams")
+                .description("Teams in the Yunite leaderboard per build")
+                .register(REGISTRY)
+                .record(teams);
+        DistributionSummary.builder("fnzs.leaderboard.players")
+                .description("Players in the individual leaderboard per build")
+                .register(REGISTRY)
+                .record(players);
+    }
+
+    private static Timer stageTimer(String stage) {
+        return Timer.builder("fnzs.leaderboard.stage")
+                .description("Duration of each leaderboard build stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(REGISTRY);
+    }
+}
@@ -0,0 +1,216 @@
+package org.calves.fnzs.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.fnzs.cache.LeaderboardCache;
+import org.calves.fnzs.cache.SessionLeaderboardCache;
+import org.calves.fnzs.cache.UsernameDictionary;
+import org.calves.fnzs.cache.UsernameResolver;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.SessionLeaderboard;
+import org.calves.yunite4j.dto.Team;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the state that is expensive to rebuild from Yunite, so a restarted instance starts warm.
+ * <p>
+ * Three kinds of snapshots are kept: the leaderboards of scored sessions, which are final; the username dictionary;
+ * and the last computed leaderboard of each cached tournament, whose match sessions are stored once rather than with
+ * every game. They are written periodically and on shutdown, only when they changed since the last write. On startup
+ * they are loaded back into the caches and served right away, while the restored leaderboards are recomputed in the
+ * background.
+ * <p>
+ * Each guild has its own state. The username dictionary is shared by every guild, so only one of them persists it.
+ * The persisted dictionary is only restored when no dictionary could be loaded from the accounts database.
+ *
+ * @author carlos.pedroalves
+ */
+public class PersistentState {
+
+    private static final Logger LOGGER = LogManager.getLogger(PersistentState.class);
+    private static final String SESSION_LEADERBOARDS = "session-leaderboards";
+    private static final String USERNAMES = "usernames";
+    private static final String LEADERBOARD_PREFIX = "leaderboard-";
+
+    private final SnapshotStore store;
+    private final SessionLeaderboardCache sessionLeaderboards;
+    private final UsernameResolver usernameResolver;
+    private final LeaderboardCache leaderboards;
+
+    private long writtenSessionsVersion = -1;
+    private UsernameDictionary writtenDictionary;
+    private final Map<String, Long> writtenLeaderboardVersions = new HashMap<>();
+
+    /**
+     * @param usernameResolver the resolver whose dictionary is persisted, or null if another state persists it
+     */
+    public PersistentState(SnapshotStore store, SessionLeaderboardCache sessionLeaderboards, UsernameResolver usernameResolver,
+                           LeaderboardCache leaderboards) {
+        this.store = store;
+        this.sessionLeaderboards = sessionLeaderboards;
+        this.usernameResolver = usernameResolver;
+        this.leaderboards = leaderboards;
+    }
+
+    /**
+     * Loads every snapshot into the caches and starts recomputing the restored leaderboards in the background.
+     */
+    public synchronized void restore() {
+        long start = System.nanoTime();
+
+        store.read(SESSION_LEADERBOARDS, new TypeReference<Map<String, List<SessionLeaderboard>>>() {
+        }).ifPresent(restored -> {
+            restored.forEach((sessionId, leaderboard) -> sessionLeaderboards.put(sessionId, leaderboard, true));
+            writtenSessionsVersion = sessionLeaderboards.getCompletedVersion();
+            LOGGER.info("Restored {} match leaderboards", restored.size());
+        });
+
+        if (usernameResolver != null && usernameResolver.getDictionary() == UsernameDictionary.EMPTY) {
+            restoreUsernames();
+        }
+
+        for (String name : store.list(LEADERBOARD_PREFIX)) {
+            store.read(name, new TypeReference<StoredLeaderboard>() {
+            }).ifPresent(restored -> {
+                Map<String, Integer> teamsPerSession = restored.teamsPerSession();
+                linkSessions(restored);
+                LeaderboardSnapshot snapshot = new LeaderboardSnapshot(restored.tournament(), restored.teams(),
+                        sessionId -> teamsPerSession.getOrDefault(sessionId, -1), restored.computedAt());
+                leaderboards.seed(snapshot);
+                writtenLeaderboardVersions.put(restored.tournament().getId(), snapshot.getVersion());
+                // Reconcile with Yunite, the restored leaderboard is served until the new one is ready
+                leaderboards.refresh(restored.tournament());
+                LOGGER.info("Restored leaderboard of tournament {} computed at {}", restored.tournament().getId(), restored.computedAt());
+            });
+        }
+
+        LOGGER.info("Restored snapshots in {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    /**
+     * Links the restored games to the sessions stored once for the whole leaderboard.
+     */
+    private static void linkSessions(StoredLeaderboard restored) {
+        if (restored.sessions() == null) {
+            return;
+        }
+        Map<String, MatchSession> sessionsById = new HashMap<>(restored.sessions().size() * 2);
+        for (MatchSession session : restored.sessions()) {
+            sessionsById.put(session.getSessionId(), session);
+        }
+        for (Team team : restored.teams()) {
+            for (Team.Game game : team.getGameList()) {
+                if (game.getSession() == null) {
+                    game.setSession(sessionsById.get(game.getSessionId()));
+                }
+            }
+        }
+    }
+
+    private static List<MatchSession> sessionsOf(List<Team> teams) {
+        Map<String, MatchSession> sessions = new LinkedHashMap<>();
+        for (Team team : teams) {
+            for (Team.Game game : team.getGameList()) {
+                if (game.getSession() != null) {
+                    sessions.putIfAbsent(game.getSessionId(), game.getSession());
+                }
+            }
+        }
+        return List.copyOf(sessions.values());
+    }
+
+    private void restoreUsernames() {
+        store.read(USERNAMES, new TypeReference<UsernameDictionary.Data>() {
+        }).ifPresent(restored -> {
+            try {
+                UsernameDictionary dictionary = UsernameDictionary.fromData(restored);
+                usernameResolver.setDictionary(dictionary);
+                writtenDictionary = dictionary;
+                LOGGER.info("Restored {} usernames", dictionary.size());
+            } catch (IllegalArgumentException ex) {
+                LOGGER.error("Discarding username snapshot", ex);
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshots that changed since they were last written.
+     */
+    public synchronized void flush() {
+        long sessionsVersion = sessionLeaderboards.getCompletedVersion();
+        if (sessionsVersion != writtenSessionsVersion) {
+            store.write(SESSION_LEADERBOARDS, sessionLeaderboards.getCompleted());
+            writtenSessionsVersion = sessionsVersion;
+        }
+
+        if (usernameResolver != null) {
+            UsernameDictionary dictionary = usernameResolver.getDictionary();
+            if (dictionary != writtenDictionary && dictionary != UsernameDictionary.EMPTY) {
+                store.write(USERNAMES, dictionary.toData());
+                writtenDictionary = dictionary;
+            }
+        }
+
+        Set<String> cached = new HashSet<>();
+        for (LeaderboardSnapshot snapshot : leaderboards.getSnapshots()) {
+            String tournamentId = snapshot.getTournament().getId();
+            cached.add(tournamentId);
+            if (!Long.valueOf(snapshot.getVersion()).equals(writtenLeaderboardVersions.get(tournamentId))) {
+                store.write(LEADERBOARD_PREFIX + tournamentId, new StoredLeaderboard(snapshot.getTournament(), snapshot.getTeams(),
+                        sessionsOf(snapshot.getTeams()), snapshot.getTeamsPerSession(), snapshot.getComputedAt()));
+                writtenLeaderboardVersions.put(tournamentId, snapshot.getVersion());
+            }
+        }
+        // Tournaments that dropped out of the cache are not worth restoring either
+        for (String name : store.list(LEADERBOARD_PREFIX)) {
+            String tournamentId = name.substring(LEADERBOARD_PREFIX.length());
+            if (!cached.contains(tournamentId)) {
+                store.delete(name);
+                writtenLeaderboardVersions.remove(tournamentId);
+            }
+        }
+    }
+
+    /**
+     * Flushes every interval and once more when the JVM shuts down.
+     */
+    public void scheduleFlushes(Duration interval) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushSafely, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushSafely, "snapshot-writer-shutdown"));
+        LOGGER.info("Snapshots written every {}", interval);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed to write snapshots", ex);
+        }
+    }
+
+    /**
+     * @param sessions every session of the games, which are stored without them; null in snapshots that embedded them
+     */
+    record StoredLeaderboard(Tournament tournament, List<Team> teams, List<MatchSession> sessions,
+                             Map<String, Integer> teamsPerSession, Instant computedAt) {
+    }
+}
@@ -0,0 +1,166 @@
+package org.calves.fnzs.store;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.calves.yunite4j.dto.MatchSession;
+import org.calves.yunite4j.dto.Team;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Directory of binary snapshot files.
+ * <p>
+ * Each file is a 16 byte header (magic number, format version, payload length and CRC32 of the payload) followed by
+ * the payload encoded as Smile, Jackson's binary JSON. Files are memory-mapped to be read, and written to a temporary
+ * file first and then renamed, so a crash never leaves a half-written snapshot behind. Files with another format
+ * version, a bad checksum or an unreadable payload are deleted and reported as missing.
+ *
+ * @author carlos.pedroalves
+ */
+public class SnapshotStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(SnapshotStore.class);
+    private static final int MAGIC = 0x464E5A53; // FNZS
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String EXTENSION = ".fnzs";
+
+    private final Path directory;
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .findAndRegisterModules()
+            .addMixIn(Team.Game.class, StoredGame.class)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(String.format("Could not create snapshot directory %s", directory), ex);
+        }
+        LOGGER.info("Snapshot store at {}", directory.toAbsolutePath());
+    }
+
+    /**
+     * Games are written with their session ID only, every player of a match would otherwise repeat its session. Whoever
+     * stores games stores their sessions once next to them. Sessions embedded by older snapshots are still read.
+     */
+    private abstract static class StoredGame {
+
+        @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+        abstract MatchSession getSession();
+    }
+
+    public <T> Optional<T> read(String name, TypeReference<T> type) {
+        Path file = resolve(name);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                return discard(file, "not a snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                return discard(file, String.format("format version %d instead of %d", version, FORMAT_VERSION));
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length != buffer.remaining()) {
+                return discard(file, "truncated");
+            }
+            ByteBuffer payload = buffer.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return discard(file, "checksum mismatch");
+            }
+            return Optional.of(mapper.readValue(new ByteBufferBackedInputStream(payload), type));
+        } catch (IOException ex) {
+            LOGGER.error("Could not read snapshot {}", file, ex);
+            return discard(file, "unreadable");
+        }
+    }
+
+    public void write(String name, Object value) {
+        Path file = resolve(name);
+        Path temporary = directory.resolve(name + EXTENSION + ".tmp");
+        try {
+            byte[] payload = mapper.writeValueAsBytes(value);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(payload.length)
+                    .putInt((int) crc.getValue())
+                    .flip();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(new ByteBuffer[]{header, ByteBuffer.wrap(payload)});
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.debug("Wrote snapshot {} ({} bytes)", name, payload.length + HEADER_SIZE);
+        } catch (IOException ex) {
+            LOGGER.error("Could not write snapshot {}", file, ex);
+        }
+    }
+
+    public void delete(String name) {
+        try {
+            Files.deleteIfExists(resolve(name));
+        } catch (IOException ex) {
+            LOGGER.error("Could not delete snapshot {}", name, ex);
+        }
+    }
+
+    /**
+     * Returns the names of the snapshots starting with the prefix.
+     */
+    public List<String> list(String prefix) {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(fileName -> fileName.startsWith(prefix) && fileName.endsWith(EXTENSION))
+                    .forEach(fileName -> names.add(fileName.substring(0, fileName.length() - EXTENSION.length())));
+        } catch (IOException ex) {
+            LOGGER.error("Could not list snapshots in {}", directory, ex);
+        }
+        return names;
+    }
+
+    private Path resolve(String name) {
+        return directory.resolve(name + EXTENSION);
+    }
+
+    private <T> Optional<T> discard(Path file, String reason) {
+        LOGGER.warn("Discarding snapshot {}: {}", file, reason);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            LOGGER.error("Could not delete snapshot {}", file, ex);
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,32 @@
+package org.calves.fnzs.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * @author carlos.pedroalves
+ */
+public class EnvironmentUtils {
+
+    private static final Logger LOGGER = LogManager.getLogger(EnvironmentUtils.class);
+
+    private EnvironmentUtils() {
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            LOGGER.error("Invalid value {} for environment variable {}, using default {}", value, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+}
@@ -1,31 +1,45 @@
 package org.calves.fnzs.views;
 
-import com.vaadin.flow.component.Unit;
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.DetachEvent;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.dependency.StyleSheet;
-import com.vaadin.flow.component.formlayout.FormLayout;
 import com.vaadin.flow.component.grid.ColumnTextAlign;
 import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.html.H1;
 import com.vaadin.flow.component.notification.NotificationVariant;
-import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.progressbar.ProgressBar;
 import com.vaadin.flow.component.textfield.TextField;
-import com.vaadin.flow.data.renderer.ComponentRenderer;
+import com.vaadin.flow.data.provider.ConfigurableFilterDataProvider;
+import com.vaadin.flow.data.renderer.LitRenderer;
+import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.router.BeforeEvent;
 import com.vaadin.flow.router.HasUrlParameter;
 import com.vaadin.flow.router.Route;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.shared.Registration;
 import com.vaadin.flow.theme.lumo.Lumo;
 import com.vaadin.flow.theme.material.Material;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
 import org.calves.fnzs.controller.FnzsController;
+import org.calves.fnzs.leaderboard.GameSummary;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot.Column;
+import org.calves.fnzs.leaderboard.LeaderboardUpdate;
 import org.calves.yunite4j.dto.Team;
 import org.calves.yunite4j.dto.Tournament;
 import utils.MathUtils;
 
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author carlos.pedroalves
@@ -35,55 +49,218 @@ public class IndividualLeaderboardView extends VerticalLayout implements HasUrlP
 
     private static final ZoneId ZONE_ID = ZoneId.of("Europe/Lisbon");
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH'h'mm");
+    private static final int GAMES_PAGE_SIZE = 10;
+    private static final String DETAILS_TEMPLATE = """
+            <div style="display: flex; flex-wrap: wrap; gap: var(--lumo-space-l); padding: var(--lumo-space-s) 0;">
+                <span><b>Counted Kills</b> ${item.countedKills}</span>
+                <span><b>Counted Wins</b> ${item.countedWins}</span>
+                <span><b>Counted Games</b> ${item.countedGames}</span>
+                <span><b>Placement Score</b> ${item.placementScore}</span>
+                <span><b>Elimination Score</b> ${item.eliminationScore}</span>
+                <span><b>Epic ID</b> ${item.epicId}</span>
+                <span><b>Discord ID</b> ${item.discordId}</span>
+            </div>
+            <table style="border-collapse: collapse; text-align: center;">
+                <thead>
+                    <tr><th>Match ID</th><th>Timestamp</th><th>Score</th><th>Counts?</th><th>Kills</th><th>Placement</th></tr>
+                </thead>
+                <tbody>
+                    ${item.games.map(game => html`
+                        <tr>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.sessionId}</td>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.timestamp}</td>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.score}</td>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.counts}</td>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.kills}</td>
+                            <td style="padding: 0 var(--lumo-space-m);">${game.placement}</td>
+                        </tr>`)}
+                </tbody>
+            </table>
+            ${item.remainingGames > 0
+                ? html`<vaadin-button theme="tertiary small" @click=${showMoreGames}>Show more games (${item.remainingGames} left)</vaadin-button>`
+                : ''}
+            """;
 
     private Grid<Team> grid = new Grid<>(Team.class, false);
     private H1 tournamentTitle = new H1("Loading tournament data");
+    private TextField playerFilter = new TextField();
+    // Null for the default guild
+    private String guildId;
     private Tournament tournament;
-    private List<Team> leaderboard = new ArrayList<>();
+    private LeaderboardDataProvider dataProvider;
+    private ConfigurableFilterDataProvider<Team, Void, String> filteredDataProvider;
+    private final Map<String, Integer> visibleGames = new HashMap<>();
+    private Registration liveUpdates;
+    private CompletableFuture<LeaderboardSnapshot> pendingLoad;
+    private final ProgressBar loadingIndicator = new ProgressBar();
 
     public IndividualLeaderboardView() {
 
         getElement().executeJs("document.documentElement.setAttribute('theme', $0)", Lumo.DARK);
 
-        grid.addColumn(Team::getPlacement).setHeader("Rank");
-        grid.addColumn(team -> team.getUsers().getFirst().getEpicUsername()).setHeader("Player");
-        grid.addColumn(Team::getScore).setHeader("Score");
-        grid.addColumn(Team::getGames).setHeader("Games");
-        grid.addColumn(Team::getKills).setHeader("Eliminations");
-        grid.addColumn(Team::getWins).setHeader("Wins");
-        grid.addColumn(team -> MathUtils.roundToDecimalPlaces(team.getAveragePlacement(), 1)).setHeader("Average Placement");
-        grid.addColumn(team -> MathUtils.roundToDecimalPlaces(team.getAverageSecondsSurvived() / 60, 1)).setHeader("Average Minutes Survived");
-
-        grid.getColumns().forEach(column -> {
-            column.setSortable(true);
-            column.setTextAlign(ColumnTextAlign.CENTER);
+        // Sorting is done on the snapshot orders, the sort property is the snapshot column
+        grid.addColumn(Team::getPlacement).setHeader("Rank").setSortProperty(Column.RANK.name());
+        grid.addColumn(team -> team.getUsers().getFirst().getEpicUsername()).setHeader("Player").setSortProperty(Column.PLAYER.name());
+        grid.addColumn(Team::getScore).setHeader("Score").setSortProperty(Column.SCORE.name());
+        grid.addColumn(Team::getGames).setHeader("Games").setSortProperty(Column.GAMES.name());
+        grid.addColumn(Team::getKills).setHeader("Eliminations").setSortProperty(Column.ELIMINATIONS.name());
+        grid.addColumn(Team::getWins).setHeader("Wins").setSortProperty(Column.WINS.name());
+        grid.addColumn(team -> MathUtils.roundToDecimalPlaces(team.getAveragePlacement(), 1)).setHeader("Average Placement")
+                .setSortProperty(Column.AVERAGE_PLACEMENT.name());
+        grid.addColumn(team -> MathUtils.roundToDecimalPlaces(team.getAverageSecondsSurvived() / 60, 1)).setHeader("Average Minutes Survived")
+                .setSortProperty(Column.AVERAGE_SURVIVAL.name());
+
+        grid.getColumns().forEach(column -> column.setTextAlign(ColumnTextAlign.CENTER));
+
+        playerFilter.setPlaceholder("Search player");
+        playerFilter.setClearButtonVisible(true);
+        playerFilter.setValueChangeMode(ValueChangeMode.LAZY);
+        playerFilter.addValueChangeListener(event -> {
+            if (filteredDataProvider != null) {
+                filteredDataProvider.setFilter(event.getValue());
+            }
         });
 
+        loadingIndicator.setIndeterminate(true);
+        loadingIndicator.setVisible(false);
+
         grid.setItemDetailsRenderer(createTeamDetailsRenderer());
-        add(tournamentTitle, grid);
+        add(tournamentTitle, loadingIndicator, playerFilter, grid);
     }
 
     @Override
     public void setParameter(BeforeEvent event, String tournamentId) {
-        // Fetch data based on the parameter
-        tournament = FnzsController.getTournament(null, tournamentId);
-        if (tournament == null) {
-            new NotificationComponent(NotificationVariant.LUMO_ERROR, "Tournament could not be retrieved. Are you sure it's valid?");
+        unsubscribeFromLiveUpdates();
+        cancelPendingLoad();
+        guildId = event.getLocation().getQueryParameters().getSingleParameter("guild").orElse(null);
+        tournament = null;
+        dataProvider = null;
+        filteredDataProvider = null;
+        visibleGames.clear();
+        tournamentTitle.setText("Loading tournament data");
+        grid.setItems(List.of());
+        loadingIndicator.setVisible(true);
+
+        // The view is rendered right away and filled in once Yunite answers, request threads never wait for it
+        UI ui = event.getUI();
+        CompletableFuture<LeaderboardSnapshot> load = new CompletableFuture<>();
+        pendingLoad = load;
+        String loadGuildId = guildId;
+        FnzsController.getTournamentAsync(loadGuildId, tournamentId)
+                .thenCompose(loaded -> {
+                    if (loaded == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    access(ui, load, () -> showTournament(loaded));
+                    return FnzsController.getLeaderboardSnapshotAsync(loadGuildId, loaded);
+                })
+                .whenComplete((snapshot, ex) -> {
+                    if (ex != null) {
+                        load.completeExceptionally(ex);
+                    } else {
+                        load.complete(snapshot);
+                    }
+                });
+        load.whenComplete((snapshot, ex) -> access(ui, load, () -> showLeaderboard(snapshot, ex)));
+    }
+
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        subscribeToLiveUpdates(attachEvent.getUI());
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        cancelPendingLoad();
+        unsubscribeFromLiveUpdates();
+        super.onDetach(detachEvent);
+    }
+
+    private void showTournament(Tournament loaded) {
+        tournament = loaded;
+        tournamentTitle.setText(loaded.getName());
+    }
+
+    private void showLeaderboard(LeaderboardSnapshot leaderboard, Throwable ex) {
+        pendingLoad = null;
+        loadingIndicator.setVisible(false);
+        if (ex != null || leaderboard == null) {
+            tournamentTitle.setText("Tournament not available");
+            String message = tournament == null
+                    ? "Tournament could not be retrieved. Are you sure it's valid?"
+                    : "Leaderboard could not be computed. Please try again later.";
+            new NotificationComponent(NotificationVariant.LUMO_ERROR, message);
             return;
         }
-        tournamentTitle.setText(tournament.getName());
-        leaderboard = FnzsController.getTournamentLeaderboard(tournament);
-        if (leaderboard.isEmpty()) {
+        tournament = leaderboard.getTournament();
+        dataProvider = new LeaderboardDataProvider(leaderboard);
+        filteredDataProvider = dataProvider.withConfigurableFilter();
+        filteredDataProvider.setFilter(playerFilter.getValue());
+        if (leaderboard.size() == 0) {
             new NotificationComponent(NotificationVariant.LUMO_WARNING, "Leaderboard is empty. Has the tournament started?");
         }
 
         // Update the grid with the fetched data
         updateView();
+        getUI().ifPresent(this::subscribeToLiveUpdates);
+    }
+
+    /**
+     * Runs the command in the UI if the load is still the one the view is waiting for, so results of a tournament
+     * the user navigated away from are dropped.
+     */
+    private void access(UI ui, CompletableFuture<LeaderboardSnapshot> load, Command command) {
+        try {
+            ui.access(() -> {
+                if (pendingLoad == load) {
+                    command.execute();
+                }
+            });
+        } catch (UIDetachedException ex) {
+            // The view is closed, nothing to show
+        }
+    }
+
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            // Only this view's wait is cancelled, the shared leaderboard computation keeps going for other viewers
+            pendingLoad.cancel(false);
+            pendingLoad = null;
+        }
+    }
+
+    private void subscribeToLiveUpdates(UI ui) {
+        if (tournament == null || dataProvider == null || liveUpdates != null) {
+            return;
+        }
+        liveUpdates = FnzsController.subscribeToLeaderboard(guildId, tournament, dataProvider.getSnapshot(), update -> {
+            try {
+                ui.access(() -> applyUpdate(update));
+            } catch (UIDetachedException ex) {
+                // The view is being closed, it unsubscribes on detach
+            }
+        });
+    }
+
+    private void unsubscribeFromLiveUpdates() {
+        if (liveUpdates != null) {
+            liveUpdates.remove();
+            liveUpdates = null;
+        }
+    }
+
+    private void applyUpdate(LeaderboardUpdate update) {
+        if (update.reordered()) {
+            dataProvider.setSnapshot(update.snapshot());
+        } else {
+            dataProvider.setSnapshot(update.snapshot(), update.changedTeams());
+        }
     }
 
     private void updateView() {
         // Set grid items and adjust columns
-        grid.setItems(leaderboard);
+        grid.setItems(filteredDataProvider);
         grid.getColumns().forEach(column -> column.setAutoWidth(true));
 
         // First we need to set height for the parent (vertical layout)
@@ -91,86 +268,50 @@ public class IndividualLeaderboardView extends VerticalLayout implements HasUrlP
         grid.setHeightFull();
     }
 
-    private static ComponentRenderer<TeamDetailsFormLayout, Team> createTeamDetailsRenderer() {
-        return new ComponentRenderer<>(TeamDetailsFormLayout::new,
-                TeamDetailsFormLayout::setTeam);
+    /**
+     * Renders the details of a player as a single client-side template instead of server-side components. Only one
+     * page of games is sent at a time, the next ones are loaded when asked for.
+     */
+    private LitRenderer<Team> createTeamDetailsRenderer() {
+        return LitRenderer.<Team>of(DETAILS_TEMPLATE)
+                .withProperty("countedKills", Team::getCountedKills)
+                .withProperty("countedWins", Team::getCountedWins)
+                .withProperty("countedGames", Team::getCountedGames)
+                .withProperty("placementScore", team -> String.format("%d (%.1f%%)", team.getPlacementScore(), (double) team.getPlacementScore() / team.getScore() * 100))
+                .withProperty("eliminationScore", team -> String.format("%d (%.1f%%)", team.getEliminationScore(), (double) team.getEliminationScore() / team.getScore() * 100))
+                .withProperty("epicId", team -> team.getUsers().getFirst().getEpicId())
+                .withProperty("discordId", team -> team.getUsers().getFirst().getDiscordId())
+                .withProperty("games", this::getVisibleGames)
+                .withProperty("remainingGames", team -> getGameSummaries(team).size() - getVisibleGameCount(team))
+                .withFunction("showMoreGames", team -> {
+                    visibleGames.merge(team.getUsers().getFirst().getEpicId(), GAMES_PAGE_SIZE, Integer::sum);
+                    dataProvider.refreshItem(team);
+                });
     }
 
-    private static class TeamDetailsFormLayout extends FormLayout {
-        private final TextField countedKillsField = new TextField("Counted Kills");
-        private final TextField countedWinsField = new TextField("Counted Wins");
-        private final TextField countedGamesField = new TextField("Counted Games");
-        private final TextField placementScoreField = new TextField("Placement Score");
-        private final TextField eliminationScoreField = new TextField("Elimination Score");
-        private final TextField epicIdField = new TextField("Epic ID");
-        private final TextField discordIdField = new TextField("Discord ID");
-        private final VerticalLayout matches = new VerticalLayout();
-
-        public TeamDetailsFormLayout() {
-            Stream.of(countedKillsField, countedWinsField, countedGamesField, placementScoreField, eliminationScoreField, epicIdField, discordIdField).forEach(field -> {
-                field.setReadOnly(true);
-                add(field);
-            });
+    private List<GameSummary> getGameSummaries(Team team) {
+        return dataProvider.getSnapshot().getGameSummaries(team);
+    }
 
-            setResponsiveSteps(
-                    new ResponsiveStep("0", 1),
-                    new ResponsiveStep("1200px", 7)
-            );
-            add(matches);
-        }
+    private int getVisibleGameCount(Team team) {
+        int visible = visibleGames.getOrDefault(team.getUsers().getFirst().getEpicId(), GAMES_PAGE_SIZE);
+        return Math.min(visible, getGameSummaries(team).size());
+    }
 
-        public void setTeam(Team team) {
-            countedKillsField.setValue(Integer.toString(team.getCountedKills()));
-            countedWinsField.setValue(Integer.toString(team.getCountedWins()));
-            countedGamesField.setValue(Integer.toString(team.getCountedGames()));
-            placementScoreField.setValue(String.format("%d (%.1f%%)", team.getPlacementScore(), (double) team.getPlacementScore() / team.getScore() * 100));
-            eliminationScoreField.setValue(String.format("%d (%.1f%%)", team.getEliminationScore(), (double) team.getEliminationScore() / team.getScore() * 100));
-            epicIdField.setValue(team.getUsers().getFirst().getEpicId());
-            discordIdField.setValue(team.getUsers().getFirst().getDiscordId());
-
-            // Clear existing matches from the layout
-            matches.removeAll();
-
-            // Add each match to the layout
-            for (Team.Game game : team.getGameList()) {
-                HorizontalLayout gameLayout = new HorizontalLayout();
-
-                TextField gameIdField = new TextField("Match ID");
-                gameIdField.setValue(game.getSessionId());
-                gameIdField.setReadOnly(true);
-                gameIdField.setMinWidth(320, Unit.PIXELS);
-
-                TextField timestampField = new TextField("Timestamp");
-                timestampField.setValue(game.getTimestamp().atZone(ZONE_ID).format(DATE_TIME_FORMATTER));
-                timestampField.setReadOnly(true);
-                timestampField.setMaxWidth(165, Unit.PIXELS);
-
-                TextField gameScoreField = new TextField("Score");
-                gameScoreField.setValue(Integer.toString(game.getScore()));
-                gameScoreField.setReadOnly(true);
-                gameScoreField.setMaxWidth(50, Unit.PIXELS);
-
-                TextField countsField = new TextField("Counts?");
-                countsField.setValue(game.isCounts() ? "Yes ✅" : "No ❌");
-                countsField.setReadOnly(true);
-                countsField.setMaxWidth(75, Unit.PIXELS);
-
-                TextField killsField = new TextField("Kills");
-                killsField.setValue(Integer.toString(game.getKills()));
-                killsField.setReadOnly(true);
-                killsField.setMaxWidth(50, Unit.PIXELS);
-
-                TextField placementField = new TextField("Placement");
-                placementField.setValue(String.format("%d/%d", game.getPlacement(), FnzsController.getTeamsInMatch(game.getSessionId())));
-                placementField.setReadOnly(true);
-                placementField.setMaxWidth(83, Unit.PIXELS);
-
-                // Add all fields to the game's horizontal layout
-                gameLayout.add(gameIdField, timestampField, gameScoreField, countsField, killsField, placementField);
-
-                // Add the game layout to the matches layout
-                matches.add(gameLayout);
-            }
+    private JsonArray getVisibleGames(Team team) {
+        List<GameSummary> games = getGameSummaries(team);
+        JsonArray result = Json.createArray();
+        for (int i = 0; i < getVisibleGameCount(team); i++) {
+            GameSummary game = games.get(i);
+            JsonObject row = Json.createObject();
+            row.put("sessionId", game.sessionId());
+            row.put("timestamp", game.timestamp().atZone(ZONE_ID).format(DATE_TIME_FORMATTER));
+            row.put("score", game.score());
+            row.put("counts", game.counts() ? "Yes ✅" : "No ❌");
+            row.put("kills", game.kills());
+            row.put("placement", String.format("%d/%d", game.placement(), game.teamsInMatch()));
+            result.set(i, row);
         }
+        return result;
     }
 }
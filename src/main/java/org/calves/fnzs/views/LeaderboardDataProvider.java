@@ -0,0 +1,75 @@
+package org.calves.fnzs.views;
+
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+import org.calves.fnzs.leaderboard.LeaderboardSnapshot;
+import org.calves.yunite4j.dto.Team;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Lazy data provider reading pages straight from a shared {@link LeaderboardSnapshot}.
+ * <p>
+ * Each UI only holds a reference to the snapshot, and sorting uses the orders precomputed in it, so neither memory per
+ * viewer nor the cost of a header click depends on the size of the leaderboard. The filter is a player name.
+ *
+ * @author carlos.pedroalves
+ */
+public class LeaderboardDataProvider extends AbstractBackEndDataProvider<Team, String> {
+
+    // Above this many changed rows a single page reload is cheaper than one refresh per row
+    private static final int MAX_ROW_REFRESHES = 200;
+
+    private volatile LeaderboardSnapshot snapshot;
+
+    public LeaderboardDataProvider(LeaderboardSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public LeaderboardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(LeaderboardSnapshot snapshot) {
+        this.snapshot = snapshot;
+        refreshAll();
+    }
+
+    /**
+     * Switches to a newer snapshot of the same leaderboard whose entries are in the same order, only refreshing the
+     * rows that changed.
+     */
+    public void setSnapshot(LeaderboardSnapshot snapshot, List<Team> changedTeams) {
+        this.snapshot = snapshot;
+        if (changedTeams.size() > MAX_ROW_REFRESHES) {
+            refreshAll();
+        } else {
+            changedTeams.forEach(this::refreshItem);
+        }
+    }
+
+    @Override
+    protected Stream<Team> fetchFromBackEnd(Query<Team, String> query) {
+        LeaderboardSnapshot.Column column = LeaderboardSnapshot.Column.RANK;
+        boolean descending = false;
+        List<QuerySortOrder> sortOrders = query.getSortOrders();
+        if (!sortOrders.isEmpty()) {
+            column = LeaderboardSnapshot.Column.valueOf(sortOrders.getFirst().getSorted());
+            descending = sortOrders.getFirst().getDirection() == SortDirection.DESCENDING;
+        }
+        return snapshot.fetch(column, descending, query.getFilter().orElse(null), query.getOffset(), query.getLimit()).stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<Team, String> query) {
+        return snapshot.count(query.getFilter().orElse(null));
+    }
+
+    @Override
+    public Object getId(Team team) {
+        return team.getUsers().getFirst().getEpicId();
+    }
+}
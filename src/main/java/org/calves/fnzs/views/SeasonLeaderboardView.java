@@ -0,0 +1,129 @@
+package org.calves.fnzs.views;
+
+import com.vaadin.flow.component.DetachEvent;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.component.grid.ColumnTextAlign;
+import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.html.H1;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.notification.NotificationVariant;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.progressbar.ProgressBar;
+import com.vaadin.flow.router.BeforeEvent;
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.theme.lumo.Lumo;
+import org.calves.fnzs.controller.FnzsController;
+import org.calves.fnzs.leaderboard.SeasonEntry;
+import org.calves.fnzs.leaderboard.SeasonLeaderboard;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Season leaderboard over several tournaments, given as comma separated tournament IDs. Tournaments of guilds other
+ * than the default one are shown with the {@code guild} query parameter.
+ *
+ * @author carlos.pedroalves
+ */
+@Route("leaderboard/season")
+public class SeasonLeaderboardView extends VerticalLayout implements HasUrlParameter<String> {
+
+    private Grid<SeasonEntry> grid = new Grid<>(SeasonEntry.class, false);
+    private H1 title = new H1("Loading season data");
+    private Span tournamentNames = new Span();
+    private ProgressBar loadingIndicator = new ProgressBar();
+    private CompletableFuture<SeasonLeaderboard> pendingLoad;
+
+    public SeasonLeaderboardView() {
+
+        getElement().executeJs("document.documentElement.setAttribute('theme', $0)", Lumo.DARK);
+
+        grid.addColumn(SeasonEntry::placement).setHeader("Rank").setSortable(true);
+        grid.addColumn(SeasonEntry::username).setHeader("Player");
+        grid.addColumn(SeasonEntry::score).setHeader("Score").setSortable(true);
+        grid.addColumn(SeasonEntry::tournaments).setHeader("Tournaments").setSortable(true);
+        grid.addColumn(SeasonEntry::games).setHeader("Counted Games").setSortable(true);
+        grid.addColumn(SeasonEntry::kills).setHeader("Counted Eliminations").setSortable(true);
+        grid.addColumn(SeasonEntry::wins).setHeader("Counted Wins").setSortable(true);
+        grid.addColumn(SeasonEntry::bestPlacement).setHeader("Best Placement").setSortable(true);
+
+        grid.getColumns().forEach(column -> column.setTextAlign(ColumnTextAlign.CENTER));
+
+        loadingIndicator.setIndeterminate(true);
+
+        setSizeFull();
+        grid.setHeightFull();
+        add(title, tournamentNames, loadingIndicator, grid);
+    }
+
+    @Override
+    public void setParameter(BeforeEvent event, String parameter) {
+        cancelPendingLoad();
+        title.setText("Loading season data");
+        tournamentNames.setText("");
+        grid.setItems(List.of());
+        loadingIndicator.setVisible(true);
+
+        List<String> tournamentIds = Arrays.stream(parameter.split(","))
+                .map(String::trim)
+                .filter(tournamentId -> !tournamentId.isEmpty())
+                .toList();
+        if (tournamentIds.isEmpty()) {
+            showSeason(null, new IllegalArgumentException("No tournaments given"));
+            return;
+        }
+
+        // Computed in the background, the view is filled in once every tournament is ready
+        UI ui = event.getUI();
+        String guildId = event.getLocation().getQueryParameters().getSingleParameter("guild").orElse(null);
+        CompletableFuture<SeasonLeaderboard> load = FnzsController.getSeasonLeaderboardAsync(guildId, tournamentIds);
+        pendingLoad = load;
+        load.whenComplete((season, ex) -> {
+            try {
+                ui.access(() -> {
+                    if (pendingLoad == load) {
+                        showSeason(season, ex);
+                    }
+                });
+            } catch (UIDetachedException detached) {
+                // The view is closed, nothing to show
+            }
+        });
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        cancelPendingLoad();
+        super.onDetach(detachEvent);
+    }
+
+    private void showSeason(SeasonLeaderboard season, Throwable ex) {
+        pendingLoad = null;
+        loadingIndicator.setVisible(false);
+        if (ex != null) {
+            title.setText("Season not available");
+            new NotificationComponent(NotificationVariant.LUMO_ERROR, "Season could not be computed. Are all tournaments valid?");
+            return;
+        }
+        title.setText("Season Leaderboard");
+        tournamentNames.setText(season.tournaments().stream().map(Tournament::getName).collect(Collectors.joining(" · ")));
+        grid.setItems(season.entries());
+        grid.getColumns().forEach(column -> column.setAutoWidth(true));
+        if (season.entries().isEmpty()) {
+            new NotificationComponent(NotificationVariant.LUMO_WARNING, "Season is empty. Have the tournaments started?");
+        }
+    }
+
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            // Shared tournament leaderboards keep being computed for other viewers
+            pendingLoad.cancel(false);
+            pendingLoad = null;
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package org.calves.fnzs.views;
 
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.Html;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.html.H1;
+import com.vaadin.flow.component.notification.NotificationVariant;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.progressbar.ProgressBar;
+import com.vaadin.flow.router.BeforeEnterEvent;
+import com.vaadin.flow.router.BeforeEnterObserver;
+import com.vaadin.flow.router.QueryParameters;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.router.RouterLink;
 import com.vaadin.flow.theme.lumo.Lumo;
@@ -10,12 +19,23 @@ import org.calves.fnzs.controller.FnzsController;
 import org.calves.yunite4j.dto.Tournament;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author carlos.pedroalves
  */
 @Route("")
-public class WelcomeView extends VerticalLayout {
+public class WelcomeView extends VerticalLayout implements BeforeEnterObserver {
+
+    // Layout to display tournament links
+    private final VerticalLayout tournamentLayout = new VerticalLayout();
+    private final ProgressBar loadingIndicator = new ProgressBar();
+    // Load of the tournaments of the current guild, kept once done so attaching again does not reload them
+    private CompletableFuture<List<Tournament>> pendingLoad;
+    // Null for the default guild
+    private String guildId;
 
     public WelcomeView() {
 
@@ -32,11 +52,79 @@ public class WelcomeView extends VerticalLayout {
                 + "</iframe>";
         Html twitchEmbed = new Html(twitchEmbedCode);
 
-        List<Tournament> tournaments = FnzsController.getTournaments();
-        tournaments.sort((t1, t2) -> t2.getStartDate().compareTo(t1.getStartDate()));
+        loadingIndicator.setIndeterminate(true);
+        tournamentLayout.add(loadingIndicator);
+
+        // Add components to the layout
+        add(welcomeMessage, twitchEmbed, tournamentLayout);
+    }
+
+    @Override
+    public void beforeEnter(BeforeEnterEvent event) {
+        String enteredGuildId = event.getLocation().getQueryParameters().getSingleParameter("guild").orElse(null);
+        if (Objects.equals(enteredGuildId, guildId)) {
+            return;
+        }
+        // The view is reused when only the guild changes, the tournaments of the previous guild are dropped
+        guildId = enteredGuildId;
+        cancelPendingLoad();
+        if (isAttached()) {
+            loadTournaments(event.getUI());
+        }
+    }
+
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        if (pendingLoad == null) {
+            loadTournaments(attachEvent.getUI());
+        }
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        if (pendingLoad != null && !pendingLoad.isDone()) {
+            cancelPendingLoad();
+        }
+        super.onDetach(detachEvent);
+    }
+
+    private void loadTournaments(UI ui) {
+        tournamentLayout.removeAll();
+        tournamentLayout.add(loadingIndicator);
+        // Tournaments are listed once Yunite answers, the page itself is rendered right away
+        CompletableFuture<List<Tournament>> load = FnzsController.getTournamentsAsync(guildId);
+        pendingLoad = load;
+        load.whenComplete((tournaments, ex) -> {
+            try {
+                ui.access(() -> {
+                    // Results of a guild the user navigated away from are dropped
+                    if (pendingLoad == load) {
+                        showTournaments(tournaments, ex);
+                    }
+                });
+            } catch (UIDetachedException detached) {
+                // The view is closed, nothing to show
+            }
+        });
+    }
+
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel(false);
+            pendingLoad = null;
+        }
+    }
 
-        // Create a layout to display tournament links
-        VerticalLayout tournamentLayout = new VerticalLayout();
+    private void showTournaments(List<Tournament> tournaments, Throwable ex) {
+        tournamentLayout.removeAll();
+        if (ex != null) {
+            if (!(ex instanceof CancellationException)) {
+                new NotificationComponent(NotificationVariant.LUMO_ERROR, "Tournaments could not be retrieved. Please try again later.");
+            }
+            return;
+        }
+        // Already sorted by start date, newest first
         for (Tournament tournament : tournaments) {
             // Create a link for each tournament
             RouterLink tournamentLink = new RouterLink(
@@ -44,10 +132,10 @@ public class WelcomeView extends VerticalLayout {
                     IndividualLeaderboardView.class,
                     tournament.getId()
             );
+            if (guildId != null) {
+                tournamentLink.setQueryParameters(QueryParameters.of("guild", guildId));
+            }
             tournamentLayout.add(tournamentLink);
         }
-
-        // Add components to the layout
-        add(welcomeMessage, twitchEmbed, tournamentLayout);
     }
 }
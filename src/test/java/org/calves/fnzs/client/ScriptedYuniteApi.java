@@ -0,0 +1,61 @@
+package org.calves.fnzs.client;
+
+import org.calves.yunite4j.YuniteApi;
+import org.calves.yunite4j.dto.ApiConfig;
+import org.calves.yunite4j.dto.Tournament;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * {@link YuniteApi} answering the tournament list with scripted responses instead of the network. Failures are thrown
+ * the way yunite4j reports HTTP errors.
+ *
+ * @author carlos.pedroalves
+ */
+class ScriptedYuniteApi extends YuniteApi {
+
+    private final Queue<Supplier<List<Tournament>>> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    ScriptedYuniteApi() {
+        super(new ApiConfig("test"));
+    }
+
+    ScriptedYuniteApi thenReturn(List<Tournament> tournaments) {
+        responses.add(() -> tournaments);
+        return this;
+    }
+
+    ScriptedYuniteApi thenFailWithStatus(int status) {
+        responses.add(() -> {
+            throw new RuntimeException("Unexpected status code: " + status);
+        });
+        return this;
+    }
+
+    ScriptedYuniteApi thenAnswer(Supplier<List<Tournament>> response) {
+        responses.add(response);
+        return this;
+    }
+
+    /**
+     * Returns how many calls reached the stub.
+     */
+    int getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public List<Tournament> getTournaments(String guildId) {
+        calls.incrementAndGet();
+        Supplier<List<Tournament>> response = responses.poll();
+        if (response == null) {
+            throw new IllegalStateException("No response scripted for call " + calls.get());
+        }
+        return response.get();
+    }
+}
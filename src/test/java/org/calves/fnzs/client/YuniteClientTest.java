@@ -0,0 +1,174 @@
+package org.calves.fnzs.client;
+
+import org.calves.yunite4j.dto.Tournament;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retries, circuit breaker, coalescing and stale fallback of the {@link YuniteClient}, against a {@link ScriptedYuniteApi}.
+ *
+ * @author carlos.pedroalves
+ */
+class YuniteClientTest {
+
+    private static final String GUILD_ID = "guild";
+    private static final Duration OPEN_DURATION = Duration.ofMillis(200);
+
+    @Test
+    void classifiesRetryableFailures() {
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("Unexpected status code: 429")));
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("HTTP 503")));
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("HTTP/1.1 502 Bad Gateway")));
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("status=500")));
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("429 Too Many Requests")));
+        assertTrue(YuniteClient.isRetryable(new RuntimeException("Request failed", new IOException("Connection reset"))));
+        assertTrue(YuniteClient.isRetryable(new UncheckedIOException(new IOException("Connection refused"))));
+
+        assertFalse(YuniteClient.isRetryable(new RuntimeException("Unexpected status code: 404")));
+        assertFalse(YuniteClient.isRetryable(new RuntimeException("HTTP 400")));
+        assertFalse(YuniteClient.isRetryable(new RuntimeException("Tournament 503 not found")));
+        assertFalse(YuniteClient.isRetryable(new RuntimeException("Session 5123 has no leaderboard")));
+        assertFalse(YuniteClient.isRetryable(new RuntimeException((String) null)));
+    }
+
+    @Test
+    void retriesRateLimitedCalls() {
+        List<Tournament> tournaments = new ArrayList<>();
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenFailWithStatus(429).thenReturn(tournaments);
+        YuniteClient client = new YuniteClient(api, settings(2, 5));
+
+        assertSame(tournaments, client.getTournaments(GUILD_ID));
+        assertEquals(2, api.getCalls());
+        assertEquals(1, client.getStats().get("getTournaments").retries());
+    }
+
+    @Test
+    void backsOffUntilRetriesRunOut() {
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenFailWithStatus(503).thenFailWithStatus(503).thenFailWithStatus(503);
+        YuniteClient client = new YuniteClient(api, settings(2, 5));
+
+        YuniteUnavailableException ex = assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertTrue(ex.getMessage().contains("failed after 3 attempts"));
+        assertEquals(3, api.getCalls());
+        YuniteClient.EndpointStats stats = client.getStats().get("getTournaments");
+        assertEquals(2, stats.retries());
+        assertEquals(1, stats.failures());
+    }
+
+    @Test
+    void doesNotRetryRejectedRequests() {
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenFailWithStatus(404).thenFailWithStatus(404).thenFailWithStatus(404);
+        YuniteClient client = new YuniteClient(api, settings(2, 1));
+
+        for (int i = 0; i < 3; i++) {
+            RuntimeException ex = assertThrows(RuntimeException.class, () -> client.getTournaments(GUILD_ID));
+            assertFalse(ex instanceof YuniteUnavailableException);
+        }
+        // Yunite answered every time, so the circuit never opened
+        assertEquals(3, api.getCalls());
+        assertEquals(0, client.getStats().get("getTournaments").retries());
+    }
+
+    @Test
+    void opensCircuitAndClosesItAfterSuccessfulTrial() throws InterruptedException {
+        List<Tournament> tournaments = new ArrayList<>();
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenFailWithStatus(503).thenFailWithStatus(503)
+                .thenReturn(tournaments).thenReturn(tournaments);
+        YuniteClient client = new YuniteClient(api, settings(0, 2));
+
+        assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        YuniteUnavailableException open = assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertTrue(open.getMessage().startsWith("Circuit open"));
+        assertEquals(2, api.getCalls());
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 50);
+        // Half open: the trial call goes through and closes the circuit
+        assertSame(tournaments, client.getTournaments(GUILD_ID));
+        assertSame(tournaments, client.getTournaments(GUILD_ID));
+        assertEquals(4, api.getCalls());
+    }
+
+    @Test
+    void reopensCircuitAfterFailedTrial() throws InterruptedException {
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenFailWithStatus(503).thenFailWithStatus(503).thenFailWithStatus(503);
+        YuniteClient client = new YuniteClient(api, settings(0, 2));
+
+        assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        Thread.sleep(OPEN_DURATION.toMillis() + 50);
+        assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertEquals(3, api.getCalls());
+
+        // A single failed trial is enough to open the circuit again
+        YuniteUnavailableException open = assertThrows(YuniteUnavailableException.class, () -> client.getTournaments(GUILD_ID));
+        assertTrue(open.getMessage().startsWith("Circuit open"));
+        assertEquals(3, api.getCalls());
+    }
+
+    @Test
+    void coalescesIdenticalCallsInFlight() throws Exception {
+        List<Tournament> tournaments = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenAnswer(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return tournaments;
+        });
+        YuniteClient client = new YuniteClient(api, settings(0, 5));
+
+        CompletableFuture<List<Tournament>> leader = CompletableFuture.supplyAsync(() -> client.getTournaments(GUILD_ID));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<Tournament>> follower = CompletableFuture.supplyAsync(() -> client.getTournaments(GUILD_ID));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.getStats().get("getTournaments").coalesced() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertSame(tournaments, leader.get(5, TimeUnit.SECONDS));
+        assertSame(tournaments, follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, api.getCalls());
+        assertEquals(1, client.getStats().get("getTournaments").coalesced());
+    }
+
+    @Test
+    void servesLastResponseWhenUnavailable() {
+        List<Tournament> tournaments = new ArrayList<>();
+        ScriptedYuniteApi api = new ScriptedYuniteApi().thenReturn(tournaments).thenFailWithStatus(503).thenFailWithStatus(404);
+        YuniteClient client = new YuniteClient(api, settings(0, 5));
+
+        assertSame(tournaments, client.getTournaments(GUILD_ID));
+        assertSame(tournaments, client.getTournaments(GUILD_ID));
+        assertEquals(1, client.getStats().get("getTournaments").staleServed());
+
+        // A rejected request is not hidden behind a stale response
+        RuntimeException rejected = assertThrows(RuntimeException.class, () -> client.getTournaments(GUILD_ID));
+        assertFalse(rejected instanceof YuniteUnavailableException);
+        assertEquals(1, client.getStats().get("getTournaments").staleServed());
+    }
+
+    private static YuniteClient.Settings settings(int maxRetries, int circuitFailureThreshold) {
+        return new YuniteClient.Settings(1_000, 1_000, Duration.ofSeconds(5), maxRetries, Duration.ofMillis(10),
+                Duration.ofMillis(50), circuitFailureThreshold, OPEN_DURATION, 1_000);
+    }
+}